@@ -1,16 +1,29 @@
 package com.reactivespring.moviesinfoservice.controller;
 
 import com.reactivespring.moviesinfoservice.domain.MovieInfo;
+import com.reactivespring.moviesinfoservice.domain.MovieInfoBulkResult;
+import com.reactivespring.moviesinfoservice.exception.MovieInfoPageException;
+import com.reactivespring.moviesinfoservice.exception.MovieInfoVersionException;
+import com.reactivespring.moviesinfoservice.service.MovieInfoBulkService;
 import com.reactivespring.moviesinfoservice.service.MovieInfoService;
+import com.reactivespring.moviesinfoservice.stream.MovieInfoBroadcastHub;
+import com.reactivespring.stream.FlushCoalescer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 
 import javax.validation.Valid;
+import java.time.Duration;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/v1")
@@ -18,62 +31,169 @@ public class MovieInfoController {
 
     private MovieInfoService movieInfoService;
 
-    Sinks.Many<MovieInfo> movieInfoSink = Sinks.many().replay().latest();
+    private MovieInfoBroadcastHub movieInfoBroadcastHub;
 
-    public MovieInfoController(MovieInfoService movieInfoService) {
+    private MovieInfoBulkService movieInfoBulkService;
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final StringDecoder LINE_DECODER = StringDecoder.allMimeTypes();
+
+    @Value("${movieInfo.page.defaultSize:100}")
+    private int defaultPageSize;
+
+    @Value("${movieInfo.page.maxSize:1000}")
+    private int maxPageSize;
+
+    @Value("${movieInfoStream.flush.window:5ms}")
+    private Duration flushWindow;
+
+    @Value("${movieInfoStream.flush.maxBytes:16384}")
+    private int flushMaxBytes;
+
+    public MovieInfoController(MovieInfoService movieInfoService, MovieInfoBroadcastHub movieInfoBroadcastHub,
+                               MovieInfoBulkService movieInfoBulkService) {
         this.movieInfoService = movieInfoService;
+        this.movieInfoBroadcastHub = movieInfoBroadcastHub;
+        this.movieInfoBulkService = movieInfoBulkService;
     }
 
     @PostMapping("/movieinfo")
     @ResponseStatus(HttpStatus.CREATED)
     public Mono<MovieInfo> addMovieInfo(@RequestBody @Valid MovieInfo movieInfo) {
         return movieInfoService.addMovieInfo(movieInfo)
-                        .doOnNext(savedInfo-> movieInfoSink.tryEmitNext(savedInfo));
+                        .doOnNext(savedInfo-> movieInfoBroadcastHub.publish(savedInfo));
 
         //publish that movie to something
         //subscriber to this movie info
 
     }
 
+    @PostMapping(value = "/movieinfo/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MovieInfoBulkResult> bulkAddMovieInfos(@RequestBody Flux<DataBuffer> body) {
+        // split into lines here and parsed one by one, so a bad line is rejected on its own instead of failing the upload
+        var lines = LINE_DECODER.decode(body, ResolvableType.forClass(String.class), null, Map.of());
+        return movieInfoBulkService.bulkAddMovieInfos(lines);
+    }
+
     @GetMapping(value = "/movieinfo/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
-    public Flux<MovieInfo> addMovieInfoById() {
-        return movieInfoSink.asFlux().log();
+    public Flux<DataBuffer> addMovieInfoById(@RequestParam(value = "overflow", defaultValue = "DROP_OLDEST")
+                                                     MovieInfoBroadcastHub.OverflowPolicy overflow,
+                                             @RequestParam(value = "after", required = false) Long after,
+                                             ServerHttpResponse response) {
+        // already encoded NDJSON lines, written as they are
+        var events = movieInfoBroadcastHub.subscribe(overflow, after, MovieInfoBroadcastHub.Format.NDJSON,
+                response.bufferFactory());
+        return FlushCoalescer.coalesce(events, flushWindow, flushMaxBytes, response.bufferFactory());
+    }
+
+    @GetMapping(value = "/movieinfo/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<DataBuffer> getMovieInfoEvents(@RequestParam(value = "overflow", defaultValue = "DROP_OLDEST")
+                                                       MovieInfoBroadcastHub.OverflowPolicy overflow,
+                                               @RequestParam(value = "after", required = false) Long after,
+                                               @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                                               ServerHttpResponse response) {
+        // server-sent events carry the sequence number as their id, so a reconnecting client resumes where it left off
+        var events = movieInfoBroadcastHub.subscribe(overflow, lastEventId != null ? lastEventId : after,
+                MovieInfoBroadcastHub.Format.SSE, response.bufferFactory());
+        return FlushCoalescer.coalesce(events, flushWindow, flushMaxBytes, response.bufferFactory());
     }
 
     @GetMapping("/movieinfo")
-    public Flux<MovieInfo> getAllMovies(@RequestParam(value = "year", required = false) Integer year,
-                                        @RequestParam(value = "name", required = false) String name) {
+    public Mono<ResponseEntity<Flux<MovieInfo>>> getAllMovies(@RequestParam(value = "year", required = false) Integer year,
+                                                              @RequestParam(value = "name", required = false) String name,
+                                                              @RequestParam(value = "limit", required = false) Integer limit,
+                                                              @RequestParam(value = "after", required = false) String after) {
 
         if (year != null) {
-            return movieInfoService.getMovieInfoByYear(year).log();
+            return Mono.just(ResponseEntity.ok().body(movieInfoService.getMovieInfoByYear(year).log()));
         }
         if (name != null) {
-            return movieInfoService.getMovieByName(name)
-                    .flatMapMany((t) -> Flux.just(t));
+            return Mono.just(ResponseEntity.ok().body(movieInfoService.getMovieByName(name)
+                    .flatMapMany((t) -> Flux.just(t))));
+        }
+        if (limit != null && limit <= 0) {
+            return Mono.error(new MovieInfoPageException("limit must be a Positive value"));
         }
-        return movieInfoService.getAllMovieInfos().log();
+        var pageSize = limit == null ? defaultPageSize : Math.min(limit, maxPageSize);
+        // keyset pages on movieInfoId, the cursor for the next one goes in a header so the body stays a plain list
+        return movieInfoService.getMovieInfoPage(after, pageSize)
+                .map(page -> {
+                    var response = ResponseEntity.ok();
+                    if (page.getNextCursor() != null) {
+                        response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+                    }
+                    return response.body(Flux.fromIterable(page.getMovieInfos()));
+                })
+                .log();
 
     }
 
     @GetMapping("/movieinfo/{id}")
     public Mono<ResponseEntity<MovieInfo>> getMovieInfoById(@PathVariable String id) {
         return movieInfoService.getMovieInfoById(id)
-                .map(movieInfo -> ResponseEntity.ok().body(movieInfo))
+                .map(MovieInfoController::withETag)
                 .switchIfEmpty(Mono.just(ResponseEntity.notFound().build())).log();
     }
 
     @PutMapping("/movieinfo/{id}")
     public Mono<ResponseEntity<MovieInfo>> updateMovieInfo(@RequestBody MovieInfo updatedMovieInfo,
-                                                           @PathVariable String id) {
-        return movieInfoService.updateMovieInfo(updatedMovieInfo, id)
-                .map(movieInfo -> ResponseEntity.ok().body(movieInfo))
+                                                           @PathVariable String id,
+                                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return Mono.defer(() -> movieInfoService.updateMovieInfo(updatedMovieInfo, id, expectedVersion(ifMatch)))
+                .doOnNext(savedInfo -> movieInfoBroadcastHub.publish(savedInfo))
+                .map(MovieInfoController::withETag)
                 .switchIfEmpty(Mono.just(ResponseEntity.notFound().build())).log();
     }
 
+    @PatchMapping("/movieinfo/{id}")
+    public Mono<ResponseEntity<MovieInfo>> patchMovieInfo(@RequestBody MovieInfo patch,
+                                                          @PathVariable String id,
+                                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return Mono.defer(() -> movieInfoService.patchMovieInfo(patch, id, expectedVersion(ifMatch)))
+                .doOnNext(savedInfo -> movieInfoBroadcastHub.publish(savedInfo))
+                .map(MovieInfoController::withETag)
+                .switchIfEmpty(Mono.just(ResponseEntity.notFound().build())).log();
+    }
+
+    private static ResponseEntity<MovieInfo> withETag(MovieInfo movieInfo) {
+        var response = ResponseEntity.ok();
+        if (movieInfo.getVersion() != null) {
+            response.eTag(String.valueOf(movieInfo.getVersion()));
+        }
+        return response.body(movieInfo);
+    }
+
+    /**
+     * The version an If-Match header asks for, {@code null} for an unconditional update.
+     */
+    private static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        var tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        try {
+            return Long.valueOf(tag.replace("\"", ""));
+        } catch (NumberFormatException e) {
+            // not one of our ETags, so it can't match the current version
+            throw new MovieInfoVersionException("If-Match " + ifMatch + " is not a MovieInfo version");
+        }
+    }
+
     @DeleteMapping("movieinfo/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     public Mono<Void> deleteMovieInfo(@PathVariable String id) {
-        return movieInfoService.deleteMovieInfo(id).log();
+        // followers such as the movies-service cache learn about the delete from the tombstone;
+        // deleting an id that is not there is still a 204 but has nothing to tell them
+        return movieInfoService.deleteMovieInfo(id)
+                .filter(Boolean::booleanValue)
+                .doOnNext(deleted -> movieInfoBroadcastHub.publishDeleted(id))
+                .log()
+                .then();
     }
 
 }
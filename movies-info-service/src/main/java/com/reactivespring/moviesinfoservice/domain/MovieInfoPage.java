@@ -0,0 +1,16 @@
+package com.reactivespring.moviesinfoservice.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class MovieInfoPage {
+
+    private List<MovieInfo> movieInfos;
+    // null on the last page
+    private String nextCursor;
+
+}
@@ -0,0 +1,9 @@
+package com.reactivespring.moviesinfoservice.exception;
+
+public class MovieInfoPageException extends RuntimeException {
+
+    public MovieInfoPageException(String message) {
+        super(message);
+    }
+
+}
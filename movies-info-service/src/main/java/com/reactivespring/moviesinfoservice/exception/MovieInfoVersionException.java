@@ -0,0 +1,9 @@
+package com.reactivespring.moviesinfoservice.exception;
+
+public class MovieInfoVersionException extends RuntimeException {
+
+    public MovieInfoVersionException(String message) {
+        super(message);
+    }
+
+}
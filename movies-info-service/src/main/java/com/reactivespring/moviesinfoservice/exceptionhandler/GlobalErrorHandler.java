@@ -1,5 +1,7 @@
 package com.reactivespring.moviesinfoservice.exceptionhandler;
 
+import com.reactivespring.moviesinfoservice.exception.MovieInfoPageException;
+import com.reactivespring.moviesinfoservice.exception.MovieInfoVersionException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
 import org.springframework.http.HttpStatus;
@@ -26,4 +28,16 @@ public class GlobalErrorHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
     }
 
+    @ExceptionHandler(MovieInfoPageException.class)
+    public ResponseEntity<String> handlePageError(MovieInfoPageException ex) {
+        log.error("Exception Caught in handlePageError: {}", ex.getMessage(), ex);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(MovieInfoVersionException.class)
+    public ResponseEntity<String> handleVersionError(MovieInfoVersionException ex) {
+        log.error("Exception Caught in handleVersionError: {}", ex.getMessage(), ex);
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(ex.getMessage());
+    }
+
 }
@@ -0,0 +1,43 @@
+package com.reactivespring.moviesinfoservice.repository;
+
+import com.reactivespring.moviesinfoservice.domain.MovieInfo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+public interface MovieInfoRepositoryCustom {
+
+    /**
+     * Reads up to {@code limit} movie infos in {@code _id} order, starting after {@code afterId}
+     * ({@code null} for the first page). The id is either a {@link String} or an {@link org.bson.types.ObjectId},
+     * whichever it is stored as.
+     */
+    Flux<MovieInfo> findPageAfter(Object afterId, int limit);
+
+    /**
+     * Sets {@code fields} (property name to value) on the movie info and increments its version in one
+     * find-and-modify, returning the updated document. Empty when there is no such movie info, or when
+     * {@code expectedVersion} is given and does not match.
+     */
+    Mono<MovieInfo> findAndSet(String movieInfoId, Long expectedVersion, Map<String, Object> fields);
+
+    /**
+     * Like {@link #findAndSet} without an expected version, but inserts the movie info when there is none with
+     * that id. An inserted movie info starts at version 1.
+     */
+    Mono<MovieInfo> upsert(String movieInfoId, Map<String, Object> fields);
+
+    /**
+     * Deletes the movie info, emitting whether there was one with that id.
+     */
+    Mono<Boolean> deleteIfPresent(String movieInfoId);
+
+    /**
+     * Inserts the movie infos with one unordered insertMany, so a failing document doesn't stop the
+     * others. Returns the position in {@code movieInfos} and error of each one that was not inserted.
+     */
+    Mono<Map<Integer, String>> insertUnordered(List<MovieInfo> movieInfos);
+
+}
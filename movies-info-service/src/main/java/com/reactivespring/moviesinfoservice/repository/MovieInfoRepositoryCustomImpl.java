@@ -0,0 +1,100 @@
+package com.reactivespring.moviesinfoservice.repository;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import com.reactivespring.moviesinfoservice.domain.MovieInfo;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class MovieInfoRepositoryCustomImpl implements MovieInfoRepositoryCustom {
+
+    // BSON type number of ObjectId, see https://www.mongodb.com/docs/manual/reference/operator/query/type/
+    private static final int OBJECT_ID_TYPE = 7;
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    public MovieInfoRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Flux<MovieInfo> findPageAfter(Object afterId, int limit) {
+        var query = new Query();
+        if (afterId instanceof ObjectId) {
+            query.addCriteria(Criteria.where("_id").gt(afterId));
+        } else if (afterId != null) {
+            // ids given by the client are stored as strings and generated ones as ObjectIds. $gt only compares
+            // within one BSON type, and strings sort before ObjectIds, so the ObjectIds all come after a string id
+            query.addCriteria(new Criteria().orOperator(
+                    Criteria.where("_id").gt(afterId),
+                    Criteria.where("_id").type(OBJECT_ID_TYPE)));
+        }
+        // both branches are ranges on the _id index, read in index order without a sort stage;
+        // the batch size matches the page so it comes back in a single round trip
+        query.with(Sort.by(Sort.Direction.ASC, "_id"))
+                .limit(limit)
+                .cursorBatchSize(limit);
+        return mongoTemplate.find(query, MovieInfo.class);
+    }
+
+    @Override
+    public Mono<MovieInfo> findAndSet(String movieInfoId, Long expectedVersion, Map<String, Object> fields) {
+        var criteria = Criteria.where("_id").is(movieInfoId);
+        if (expectedVersion != null) {
+            criteria.and("version").is(expectedVersion);
+        }
+        return mongoTemplate.findAndModify(new Query(criteria), setAndIncrementVersion(fields),
+                FindAndModifyOptions.options().returnNew(true), MovieInfo.class);
+    }
+
+    @Override
+    public Mono<MovieInfo> upsert(String movieInfoId, Map<String, Object> fields) {
+        return mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(movieInfoId)), setAndIncrementVersion(fields),
+                FindAndModifyOptions.options().returnNew(true).upsert(true), MovieInfo.class);
+    }
+
+    @Override
+    public Mono<Boolean> deleteIfPresent(String movieInfoId) {
+        return mongoTemplate.remove(new Query(Criteria.where("_id").is(movieInfoId)), MovieInfo.class)
+                .map(result -> result.getDeletedCount() > 0);
+    }
+
+    private static Update setAndIncrementVersion(Map<String, Object> fields) {
+        var update = new Update();
+        fields.forEach(update::set);
+        update.inc("version", 1);
+        return update;
+    }
+
+    @Override
+    public Mono<Map<Integer, String>> insertUnordered(List<MovieInfo> movieInfos) {
+        var documents = new ArrayList<Document>(movieInfos.size());
+        for (var movieInfo : movieInfos) {
+            // what save would start a new document's version at
+            movieInfo.setVersion(0L);
+            var document = new Document();
+            mongoTemplate.getConverter().write(movieInfo, document);
+            documents.add(document);
+        }
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(MovieInfo.class))
+                .flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+                .<Map<Integer, String>>map(result -> Map.of())
+                .onErrorResume(MongoBulkWriteException.class, e -> Mono.just(e.getWriteErrors().stream()
+                        .collect(Collectors.toMap(BulkWriteError::getIndex, BulkWriteError::getMessage))));
+    }
+
+}
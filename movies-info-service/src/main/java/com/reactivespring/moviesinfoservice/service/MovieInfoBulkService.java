@@ -0,0 +1,113 @@
+package com.reactivespring.moviesinfoservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.moviesinfoservice.domain.MovieInfo;
+import com.reactivespring.moviesinfoservice.domain.MovieInfoBulkResult;
+import com.reactivespring.moviesinfoservice.repository.MovieInfoRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Ingests NDJSON movie infos in batches: each line is parsed and validated on its own, the valid ones
+ * of a batch go to Mongo in one insertMany and a result per batch is streamed back.
+ */
+@Service
+@Slf4j
+public class MovieInfoBulkService {
+
+    private final MovieInfoRepository movieInfoRepository;
+
+    private final ObjectMapper objectMapper;
+
+    private final Validator validator;
+
+    private final int batchSize;
+
+    public MovieInfoBulkService(MovieInfoRepository movieInfoRepository, ObjectMapper objectMapper, Validator validator,
+                                @Value("${movieInfo.bulk.batchSize:500}") int batchSize) {
+        this.movieInfoRepository = movieInfoRepository;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.batchSize = batchSize;
+    }
+
+    public Flux<MovieInfoBulkResult> bulkAddMovieInfos(Flux<String> lines) {
+        return lines
+                .index((index, line) -> new Line(index + 1, line))
+                .filter(line -> !line.text.isBlank())
+                .map(this::parse)
+                .buffer(batchSize)
+                .index()
+                // one batch in flight and one buffered: the request body is only read as fast as Mongo takes the inserts
+                .concatMap(this::insert, 1);
+    }
+
+    private Line parse(Line line) {
+        try {
+            var movieInfo = objectMapper.readValue(line.text, MovieInfo.class);
+            var violations = validator.validate(movieInfo);
+            if (!violations.isEmpty()) {
+                line.error = violations.stream().map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining(","));
+            } else {
+                line.movieInfo = movieInfo;
+            }
+        } catch (JsonProcessingException e) {
+            line.error = "Invalid movieInfo : " + e.getOriginalMessage();
+        }
+        return line;
+    }
+
+    private Mono<MovieInfoBulkResult> insert(Tuple2<Long, List<Line>> indexedBatch) {
+        var batch = indexedBatch.getT2();
+        var rejected = new ArrayList<MovieInfoBulkResult.Rejected>();
+        var accepted = new ArrayList<Line>();
+        for (var line : batch) {
+            if (line.movieInfo != null) {
+                accepted.add(line);
+            } else {
+                rejected.add(new MovieInfoBulkResult.Rejected(line.number, line.error));
+            }
+        }
+
+        var inserts = accepted.isEmpty()
+                ? Mono.<Map<Integer, String>>just(Map.of())
+                : movieInfoRepository.insertUnordered(accepted.stream().map(line -> line.movieInfo).collect(Collectors.toList()));
+        return inserts.map(failures -> {
+            failures.forEach((position, error) ->
+                    rejected.add(new MovieInfoBulkResult.Rejected(accepted.get(position).number, error)));
+            rejected.sort(Comparator.comparingLong(MovieInfoBulkResult.Rejected::getLine));
+            var result = new MovieInfoBulkResult(indexedBatch.getT1() + 1, batch.get(0).number,
+                    batch.get(batch.size() - 1).number, accepted.size() - failures.size(), rejected);
+            log.debug("Bulk batch {} : {} inserted, {} rejected", result.getBatch(), result.getInserted(), rejected.size());
+            return result;
+        });
+    }
+
+    private static final class Line {
+        private final long number;
+        private final String text;
+        private MovieInfo movieInfo;
+        private String error;
+
+        private Line(long number, String text) {
+            this.number = number;
+            this.text = text;
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.reactivespring.moviesinfoservice.service;
+
+import com.reactivespring.moviesinfoservice.exception.MovieInfoPageException;
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque page cursor: the last movieInfoId of a page, tagged with the type it is stored as
+ * ({@code o:} for ObjectId, {@code s:} for string) and base64url encoded.
+ */
+final class MovieInfoCursor {
+
+    private static final String OBJECT_ID = "o:";
+    private static final String STRING = "s:";
+
+    private MovieInfoCursor() {
+    }
+
+    static String encode(String movieInfoId) {
+        // the same check Spring Data uses to store a String id as an ObjectId
+        var tagged = (ObjectId.isValid(movieInfoId) ? OBJECT_ID : STRING) + movieInfoId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(tagged.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Object decode(String cursor) {
+        String tagged;
+        try {
+            tagged = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new MovieInfoPageException("Invalid cursor : " + cursor);
+        }
+        var id = tagged.substring(Math.min(2, tagged.length()));
+        if (tagged.startsWith(OBJECT_ID) && ObjectId.isValid(id)) {
+            return new ObjectId(id);
+        }
+        if (tagged.startsWith(STRING) && !id.isEmpty()) {
+            return id;
+        }
+        throw new MovieInfoPageException("Invalid cursor : " + cursor);
+    }
+
+}
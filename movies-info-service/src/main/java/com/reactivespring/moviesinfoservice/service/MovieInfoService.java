@@ -1,12 +1,17 @@
 package com.reactivespring.moviesinfoservice.service;
 
 import com.reactivespring.moviesinfoservice.domain.MovieInfo;
+import com.reactivespring.moviesinfoservice.domain.MovieInfoPage;
+import com.reactivespring.moviesinfoservice.exception.MovieInfoVersionException;
 import com.reactivespring.moviesinfoservice.repository.MovieInfoRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @Service
 @Slf4j
 public class MovieInfoService {
@@ -17,32 +22,96 @@ public class MovieInfoService {
         this.movieInfoRepository = movieInfoRepository;
     }
 
+    /**
+     * Adds the movie info, or replaces the one already stored under a client supplied id. The version is
+     * always assigned here, whatever the client sent.
+     */
     public Mono<MovieInfo> addMovieInfo(MovieInfo movieInfo) {
-        return movieInfoRepository.save(movieInfo).log();
+        movieInfo.setVersion(null);
+        if (movieInfo.getMovieInfoId() == null) {
+            return movieInfoRepository.save(movieInfo).log();
+        }
+        // save would insert because of the version, and fail with a duplicate key for an existing id
+        return movieInfoRepository.upsert(movieInfo.getMovieInfoId(), fields(movieInfo)).log();
     }
 
-    public Flux<MovieInfo> getAllMovieInfos(){
-        return movieInfoRepository.findAll();
+    /**
+     * Reads the page of up to {@code limit} movie infos after {@code cursor}, the next cursor of
+     * the previous page, or the first page when it is {@code null}.
+     */
+    public Mono<MovieInfoPage> getMovieInfoPage(String cursor, int limit) {
+        return Mono.defer(() -> {
+            var afterId = cursor != null ? MovieInfoCursor.decode(cursor) : null;
+            // one extra to tell whether there is a next page
+            return movieInfoRepository.findPageAfter(afterId, limit + 1)
+                    .collectList()
+                    .map(movieInfos -> {
+                        if (movieInfos.size() <= limit) {
+                            return new MovieInfoPage(movieInfos, null);
+                        }
+                        var page = movieInfos.subList(0, limit);
+                        return new MovieInfoPage(page, MovieInfoCursor.encode(page.get(limit - 1).getMovieInfoId()));
+                    });
+        });
     }
 
     public Mono<MovieInfo> getMovieInfoById(String id) {
         return movieInfoRepository.findById(id);
     }
 
-    public Mono<MovieInfo> updateMovieInfo(MovieInfo updatedMovieInfo, String id) {
-         return movieInfoRepository.findById(id)
-                 .flatMap(movieInfo -> {
-                     movieInfo.setCast(updatedMovieInfo.getCast());
-                     movieInfo.setName(updatedMovieInfo.getName());
-                     movieInfo.setRelease_date(updatedMovieInfo.getRelease_date());
-                     movieInfo.setYear(updatedMovieInfo.getYear());
-                     return movieInfoRepository.save(movieInfo);
-                 });
+    /**
+     * Replaces the fields of the movie info in a single find-and-modify. With {@code expectedVersion}
+     * the update only applies to that version and fails with a {@link MovieInfoVersionException} otherwise.
+     */
+    public Mono<MovieInfo> updateMovieInfo(MovieInfo updatedMovieInfo, String id, Long expectedVersion) {
+        return findAndSet(id, expectedVersion, fields(updatedMovieInfo));
+    }
+
+    /**
+     * Like {@link #updateMovieInfo} but only sets the fields present in {@code patch}.
+     */
+    public Mono<MovieInfo> patchMovieInfo(MovieInfo patch, String id, Long expectedVersion) {
+        var fields = new LinkedHashMap<String, Object>();
+        if (patch.getCast() != null) {
+            fields.put("cast", patch.getCast());
+        }
+        if (patch.getName() != null) {
+            fields.put("name", patch.getName());
+        }
+        if (patch.getRelease_date() != null) {
+            fields.put("release_date", patch.getRelease_date());
+        }
+        if (patch.getYear() != null) {
+            fields.put("year", patch.getYear());
+        }
+        return findAndSet(id, expectedVersion, fields);
+    }
+
+    private static Map<String, Object> fields(MovieInfo movieInfo) {
+        var fields = new LinkedHashMap<String, Object>();
+        fields.put("cast", movieInfo.getCast());
+        fields.put("name", movieInfo.getName());
+        fields.put("release_date", movieInfo.getRelease_date());
+        fields.put("year", movieInfo.getYear());
+        return fields;
+    }
 
+    private Mono<MovieInfo> findAndSet(String id, Long expectedVersion, Map<String, Object> fields) {
+        return movieInfoRepository.findAndSet(id, expectedVersion, fields)
+                // nothing matched, a second look only to tell a stale version from a missing movie info
+                .switchIfEmpty(Mono.defer(() -> expectedVersion == null
+                        ? Mono.empty()
+                        : movieInfoRepository.existsById(id)
+                        .flatMap(exists -> exists
+                                ? Mono.error(new MovieInfoVersionException("MovieInfo " + id + " is not at version " + expectedVersion))
+                                : Mono.empty())));
     }
 
-    public Mono<Void> deleteMovieInfo(String id) {
-        return movieInfoRepository.deleteById(id);
+    /**
+     * Emits whether a movie info was deleted, false when there was none with that id.
+     */
+    public Mono<Boolean> deleteMovieInfo(String id) {
+        return movieInfoRepository.deleteIfPresent(id);
     }
 
     public Flux<MovieInfo> getMovieInfoByYear(Integer year) {
@@ -0,0 +1,272 @@
+package com.reactivespring.moviesinfoservice.stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.moviesinfoservice.domain.MovieInfo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.Queues;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Broadcasts saved MovieInfos to every {@code /v1/movieinfo/stream} subscriber.
+ * <p>
+ * Any number of threads may publish at once. Publications, as well as subscribers joining and leaving, are
+ * offered to one lock-free multi-producer queue, which is drained on a dedicated writer thread. Only the
+ * writer touches the subscriber list and emits, so emissions never race and nothing is rejected on the
+ * producer side. The writer also appends every MovieInfo to the {@link MovieInfoEventLog}, which numbers it;
+ * rolling a segment maps a new file and forces the previous one to disk, which must not happen on the
+ * event loop that published. A joining subscriber first receives the latest MovieInfo, as the former
+ * {@code replay().latest()} sink did, or, when it resumes after a sequence number, every logged event since
+ * then. The drain records the last sequence number at the moment the subscriber joins, so the catch-up from
+ * the log and the live events that follow neither overlap nor leave a gap.
+ * <p>
+ * Each MovieInfo is encoded once, when it is published, and the same bytes are handed to every subscriber,
+ * so the encoding cost does not grow with the number of subscribers. Each subscriber reads
+ * through its own bounded buffer and picks what happens when it overflows, see {@link OverflowPolicy}.
+ */
+@Component
+@Slf4j
+public class MovieInfoBroadcastHub {
+
+    public enum Format {
+        NDJSON, SSE
+    }
+
+    public enum OverflowPolicy {
+        DROP_OLDEST, DROP_LATEST, DISCONNECT
+    }
+
+    private final Queue<Signal> signals = Queues.<Signal>unboundedMultiproducer().get();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // only touched by the draining thread
+    private final List<Subscriber> subscribers = new ArrayList<>();
+
+    private volatile int subscriberCount;
+
+    private final int subscriberBufferSize;
+    private final ObjectMapper objectMapper;
+    private final MovieInfoEventLog eventLog;
+    private final Scheduler writer;
+    private final Map<OverflowPolicy, Counter> overflows = new EnumMap<>(OverflowPolicy.class);
+    private final Counter rejectedEmissions;
+    private final Counter appendFailures;
+
+    @Autowired
+    public MovieInfoBroadcastHub(@Value("${movieInfoStream.subscriberBufferSize:256}") int subscriberBufferSize,
+                                 ObjectMapper objectMapper, MovieInfoEventLog eventLog, MeterRegistry meterRegistry) {
+        this(subscriberBufferSize, objectMapper, eventLog, meterRegistry, Schedulers.newSingle("movieinfo-stream-writer"));
+    }
+
+    MovieInfoBroadcastHub(int subscriberBufferSize, ObjectMapper objectMapper, MovieInfoEventLog eventLog,
+                          MeterRegistry meterRegistry, Scheduler writer) {
+        this.subscriberBufferSize = subscriberBufferSize;
+        this.objectMapper = objectMapper;
+        this.eventLog = eventLog;
+        this.writer = writer;
+        for (var policy : OverflowPolicy.values()) {
+            overflows.put(policy, meterRegistry.counter("movieinfo.stream.overflow", "policy", policy.name()));
+        }
+        this.rejectedEmissions = meterRegistry.counter("movieinfo.stream.emissions.rejected");
+        this.appendFailures = meterRegistry.counter("movieinfo.stream.append.failures");
+        Gauge.builder("movieinfo.stream.subscribers", this, MovieInfoBroadcastHub::subscriberCount)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Publishes a MovieInfo that was added or updated.
+     */
+    public void publish(MovieInfo movieInfo) {
+        offer(new Signal(SignalType.PUBLISH, encode(movieInfo), null));
+    }
+
+    /**
+     * Publishes a tombstone for a deleted MovieInfo, {@code {"movieInfoId":"...","deleted":true}}, so that
+     * followers drop their copy.
+     */
+    public void publishDeleted(String movieInfoId) {
+        var tombstone = objectMapper.createObjectNode()
+                .put("movieInfoId", movieInfoId)
+                .put("deleted", true);
+        offer(new Signal(SignalType.PUBLISH, encode(tombstone, movieInfoId), null));
+    }
+
+    /**
+     * Streams the MovieInfos in the given format, one buffer per event. The buffers wrap bytes shared with
+     * the other subscribers and are read only.
+     *
+     * @param after sequence number of the last event the client has seen, or {@code null} to start from
+     *              the latest MovieInfo
+     */
+    public Flux<DataBuffer> subscribe(OverflowPolicy overflowPolicy, Long after, Format format,
+                                      DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+            var subscriber = new Subscriber(after, overflowPolicy, subscriberBufferSize);
+            offer(new Signal(SignalType.JOIN, null, subscriber));
+            // live events wait in the bounded buffer while the catch-up is read at the subscriber's pace,
+            // and the overflow policy applies to them all along
+            var live = subscriber.sink.asFlux();
+            var events = after == null
+                    ? live
+                    : subscriber.joinedAt.asMono()
+                            .flatMapMany(joinedAt -> eventLog.read(after, joinedAt).concatWith(live));
+            return events
+                    .map(event -> bufferFactory.wrap(format == Format.SSE ? event.sseFrame() : event.ndjsonLine()))
+                    .doFinally(signalType -> offer(new Signal(SignalType.LEAVE, null, subscriber)));
+        });
+    }
+
+    public int subscriberCount() {
+        return subscriberCount;
+    }
+
+    @PreDestroy
+    public void close() {
+        writer.dispose();
+    }
+
+    private void offer(Signal signal) {
+        signals.offer(signal);
+        if (wip.getAndIncrement() == 0) {
+            writer.schedule(this::drain);
+        }
+    }
+
+    private void drain() {
+        var missed = 1;
+        for (;;) {
+            Signal signal;
+            while ((signal = signals.poll()) != null) {
+                handle(signal);
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Signal signal) {
+        switch (signal.type) {
+            case PUBLISH:
+                MovieInfoEvent event;
+                try {
+                    event = eventLog.append(signal.json);
+                } catch (RuntimeException e) {
+                    // the event has no sequence number, so it can neither be replayed nor streamed
+                    log.error("Unable to append a MovieInfo to the event log, it is not streamed", e);
+                    appendFailures.increment();
+                    break;
+                }
+                subscribers.removeIf(subscriber -> !emit(subscriber, event));
+                break;
+            case JOIN:
+                var joining = signal.subscriber;
+                joining.joinedAt.tryEmitValue(eventLog.lastSeq());
+                var latest = eventLog.latest();
+                if (joining.after != null || latest == null || emit(joining, latest)) {
+                    subscribers.add(joining);
+                }
+                break;
+            case LEAVE:
+                subscribers.remove(signal.subscriber);
+                break;
+        }
+        subscriberCount = subscribers.size();
+    }
+
+    /**
+     * Returns false once the subscriber is gone and should no longer be emitted to.
+     */
+    private boolean emit(Subscriber subscriber, MovieInfoEvent event) {
+        var result = subscriber.sink.tryEmitNext(event);
+        // a full buffer reads as no subscriber while the catch-up has not reached the live events yet
+        if (result == Sinks.EmitResult.FAIL_OVERFLOW || result == Sinks.EmitResult.FAIL_ZERO_SUBSCRIBER) {
+            overflows.get(subscriber.overflowPolicy).increment();
+            switch (subscriber.overflowPolicy) {
+                case DROP_OLDEST:
+                    subscriber.buffer.poll();
+                    result = subscriber.sink.tryEmitNext(event);
+                    break;
+                case DROP_LATEST:
+                    return true;
+                case DISCONNECT:
+                    subscriber.sink.tryEmitError(Exceptions.failWithOverflow(
+                            "The subscriber fell " + subscriberBufferSize + " events behind"));
+                    return false;
+            }
+        }
+        if (result == Sinks.EmitResult.FAIL_CANCELLED || result == Sinks.EmitResult.FAIL_TERMINATED) {
+            return false;
+        }
+        if (result.isFailure()) {
+            rejectedEmissions.increment();
+        }
+        return true;
+    }
+
+    private byte[] encode(MovieInfo movieInfo) {
+        return encode(movieInfo, movieInfo.getMovieInfoId());
+    }
+
+    private byte[] encode(Object value, String movieInfoId) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to encode MovieInfo " + movieInfoId, e);
+        }
+    }
+
+    private enum SignalType { PUBLISH, JOIN, LEAVE }
+
+    private static final class Signal {
+        private final SignalType type;
+        private final byte[] json;
+        private final Subscriber subscriber;
+
+        private Signal(SignalType type, byte[] json, Subscriber subscriber) {
+            this.type = type;
+            this.json = json;
+            this.subscriber = subscriber;
+        }
+    }
+
+    private static final class Subscriber {
+        // the bounded per-subscriber buffer; thread safe, as dropping the oldest event polls it from the writer
+        private final Queue<MovieInfoEvent> buffer;
+        private final Sinks.Many<MovieInfoEvent> sink;
+        // last sequence number when the drain registered the subscriber
+        private final Sinks.One<Long> joinedAt = Sinks.one();
+        private final Long after;
+        private final OverflowPolicy overflowPolicy;
+
+        private Subscriber(Long after, OverflowPolicy overflowPolicy, int bufferSize) {
+            this.after = after;
+            this.overflowPolicy = overflowPolicy;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+            this.sink = Sinks.many().unicast().onBackpressureBuffer(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.reactivespring.moviesinfoservice.stream;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A MovieInfo published on the stream: its sequence number and its JSON encoding.
+ * <p>
+ * Instances are shared by all subscribers, so the wire formats are built at most once per event and the
+ * returned arrays must not be modified.
+ */
+public final class MovieInfoEvent {
+
+    private final long seq;
+    private final byte[] json;
+
+    private volatile byte[] ndjsonLine;
+    private volatile byte[] sseFrame;
+
+    public MovieInfoEvent(long seq, byte[] json) {
+        this.seq = seq;
+        this.json = json;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public byte[] getJson() {
+        return json;
+    }
+
+    // the lazily built formats may be built twice under a race, which is harmless
+
+    public byte[] ndjsonLine() {
+        var line = ndjsonLine;
+        if (line == null) {
+            line = Arrays.copyOf(json, json.length + 1);
+            line[json.length] = '\n';
+            ndjsonLine = line;
+        }
+        return line;
+    }
+
+    /**
+     * The event as a server-sent event frame, with the sequence number as its id so that clients can
+     * resume with {@code Last-Event-ID}.
+     */
+    public byte[] sseFrame() {
+        var frame = sseFrame;
+        if (frame == null) {
+            var header = ("id:" + seq + "\ndata:").getBytes(StandardCharsets.UTF_8);
+            frame = new byte[header.length + json.length + 2];
+            System.arraycopy(header, 0, frame, 0, header.length);
+            System.arraycopy(json, 0, frame, header.length, json.length);
+            frame[frame.length - 2] = '\n';
+            frame[frame.length - 1] = '\n';
+            sseFrame = frame;
+        }
+        return frame;
+    }
+
+}
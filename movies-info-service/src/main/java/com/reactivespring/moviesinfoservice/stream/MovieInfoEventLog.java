@@ -0,0 +1,279 @@
+package com.reactivespring.moviesinfoservice.stream;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+/**
+ * Append-only log of the movieinfo stream, kept in memory-mapped segment files so that it survives
+ * restarts and reconnecting clients can catch up from it.
+ * <p>
+ * Every event gets the next sequence number. Records are {@code [int length][long seq][json]} and a zero
+ * length marks the end of the written part of a segment. A segment is named after the first sequence
+ * number it holds and a new one is started when the next record does not fit; only the newest
+ * {@code maxSegments} are kept.
+ * <p>
+ * There is a single writer (the broadcast hub's writer thread) and any number of readers. Readers only read
+ * up to the sequence number published through {@code lastSeq}, so they never see a partly written record.
+ */
+@Component
+@Slf4j
+public class MovieInfoEventLog {
+
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    // only touched by the writer
+    private Segment active;
+
+    private volatile long lastSeq;
+    private volatile MovieInfoEvent latest;
+
+    public MovieInfoEventLog(@Value("${movieInfoStream.log.directory}") Path directory,
+                             @Value("${movieInfoStream.log.segmentSize:16777216}") int segmentSize,
+                             @Value("${movieInfoStream.log.maxSegments:8}") int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Appends an event and returns it with its sequence number. Must only be called by one thread at a time.
+     */
+    public MovieInfoEvent append(byte[] json) {
+        var seq = lastSeq + 1;
+        var recordSize = HEADER_SIZE + json.length;
+        if (recordSize + Integer.BYTES > segmentSize) {
+            // kept in memory for live subscribers only
+            log.warn("MovieInfo event {} of {} bytes does not fit in a log segment, it will not be replayed", seq, json.length);
+        } else {
+            if (active == null || active.position + recordSize + Integer.BYTES > segmentSize) {
+                roll(seq);
+            }
+            var buffer = active.buffer;
+            var position = active.position;
+            buffer.putLong(position + Integer.BYTES, seq);
+            active.slice(position + HEADER_SIZE, json.length).put(json);
+            // the length goes last, it is what makes the record visible to recovery
+            buffer.putInt(position, json.length);
+            active.position = position + recordSize;
+        }
+        var event = new MovieInfoEvent(seq, json);
+        latest = event;
+        lastSeq = seq;
+        return event;
+    }
+
+    public long lastSeq() {
+        return lastSeq;
+    }
+
+    public MovieInfoEvent latest() {
+        return latest;
+    }
+
+    /**
+     * Reads the logged events with {@code after < seq <= upTo}, oldest first. Events that were already
+     * dropped with their segment are skipped.
+     */
+    public Flux<MovieInfoEvent> read(long after, long upTo) {
+        return Flux.fromIterable(() -> new Cursor(after, Math.min(upTo, lastSeq)))
+                // page faults on the mapped files are blocking reads
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @PreDestroy
+    public void close() {
+        segments.values().forEach(segment -> segment.buffer.force());
+    }
+
+    private void recover() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (var file : files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                    .collect(Collectors.toList())) {
+                var name = file.getFileName().toString();
+                var firstSeq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                segments.put(firstSeq, Segment.map(file, segmentSize));
+            }
+        }
+        if (segments.isEmpty()) {
+            return;
+        }
+        active = segments.lastEntry().getValue();
+        MovieInfoEvent last = null;
+        var cursor = new SegmentCursor(active, Long.MIN_VALUE, Long.MAX_VALUE);
+        while (cursor.hasNext()) {
+            last = cursor.next();
+        }
+        active.position = cursor.position;
+        if (last != null) {
+            latest = last;
+            lastSeq = last.getSeq();
+        } else {
+            lastSeq = segments.lastKey() - 1;
+        }
+        log.info("Recovered the movieinfo event log from {} segments, last sequence number {}", segments.size(), lastSeq);
+    }
+
+    private void roll(long firstSeq) {
+        if (active != null) {
+            active.buffer.force();
+        }
+        var file = directory.resolve(String.format("%020d%s", firstSeq, SUFFIX));
+        try {
+            active = Segment.map(file, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.put(firstSeq, active);
+        while (segments.size() > maxSegments) {
+            var oldest = segments.pollFirstEntry().getValue();
+            try {
+                // the mapping stays valid for readers still using it until it is garbage collected
+                Files.deleteIfExists(oldest.file);
+            } catch (IOException e) {
+                log.warn("Unable to delete movieinfo log segment {}", oldest.file, e);
+            }
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        // write position, only used by the writer
+        private int position;
+
+        private Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private static Segment map(Path file, int size) throws IOException {
+            try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                // a new file is zero filled, so a fresh segment reads as empty
+                return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size())));
+            }
+        }
+
+        private ByteBuffer slice(int position, int length) {
+            var slice = buffer.duplicate();
+            slice.position(position);
+            slice.limit(position + length);
+            return slice;
+        }
+    }
+
+    /**
+     * Reads the records of one segment with {@code after < seq <= upTo}.
+     */
+    private static final class SegmentCursor implements Iterator<MovieInfoEvent> {
+        private final Segment segment;
+        private final long after;
+        private final long upTo;
+        private int position;
+        private long previousSeq = Long.MIN_VALUE;
+        private MovieInfoEvent next;
+
+        private SegmentCursor(Segment segment, long after, long upTo) {
+            this.segment = segment;
+            this.after = after;
+            this.upTo = upTo;
+        }
+
+        @Override
+        public boolean hasNext() {
+            var buffer = segment.buffer;
+            while (next == null && position + HEADER_SIZE <= buffer.capacity()) {
+                var length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()) {
+                    return false;
+                }
+                var seq = buffer.getLong(position + Integer.BYTES);
+                // past upTo, or a record the writer has not finished yet
+                if (seq > upTo || seq <= previousSeq) {
+                    return false;
+                }
+                previousSeq = seq;
+                if (seq > after) {
+                    var json = new byte[length];
+                    segment.slice(position + HEADER_SIZE, length).get(json);
+                    next = new MovieInfoEvent(seq, json);
+                }
+                position += HEADER_SIZE + length;
+            }
+            return next != null;
+        }
+
+        @Override
+        public MovieInfoEvent next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var event = next;
+            next = null;
+            return event;
+        }
+    }
+
+    /**
+     * Walks the segments from the one holding {@code after + 1} onwards.
+     */
+    private final class Cursor implements Iterator<MovieInfoEvent> {
+        private final long upTo;
+        private final Iterator<Segment> remaining;
+        private final long after;
+        private SegmentCursor current;
+
+        private Cursor(long after, long upTo) {
+            this.after = after;
+            this.upTo = upTo;
+            var from = segments.floorKey(after + 1);
+            this.remaining = (from == null ? segments : segments.tailMap(from, true)).values().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (!remaining.hasNext()) {
+                    return false;
+                }
+                current = new SegmentCursor(remaining.next(), after, upTo);
+            }
+            return true;
+        }
+
+        @Override
+        public MovieInfoEvent next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+
+}
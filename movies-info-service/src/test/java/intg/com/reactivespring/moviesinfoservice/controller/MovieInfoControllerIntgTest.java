@@ -1,20 +1,35 @@
 package com.reactivespring.moviesinfoservice.controller;
 
 import com.reactivespring.moviesinfoservice.domain.MovieInfo;
+import com.reactivespring.moviesinfoservice.domain.MovieInfoBulkResult;
 import com.reactivespring.moviesinfoservice.repository.MovieInfoRepository;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -31,6 +46,14 @@ class MovieInfoControllerIntgTest {
 
     static String MOVIES_INFO_URI = "/v1/movieinfo";
 
+    @TempDir
+    static Path streamLogDirectory;
+
+    @DynamicPropertySource
+    static void streamLogProperties(DynamicPropertyRegistry registry) {
+        registry.add("movieInfoStream.log.directory", streamLogDirectory::toString);
+    }
+
     @BeforeEach
     void setUp() {
         var movieInfos = List.of(new MovieInfo(null, "Batman Begins",
@@ -70,6 +93,74 @@ class MovieInfoControllerIntgTest {
                 });
     }
 
+    @Test
+    void addMovieInfo_existingId() {
+
+        var movieInfo = new MovieInfo("abc", "Dark Knight Rises 1",
+                2012, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20"));
+        // a version sent by the client is ignored
+        movieInfo.setVersion(7L);
+
+        webTestClient.post()
+                .uri(MOVIES_INFO_URI)
+                .bodyValue(movieInfo)
+                .exchange()
+                .expectStatus()
+                .isCreated()
+                .expectBody(MovieInfo.class)
+                .consumeWith(movieInfoEntityExchangeResult -> {
+                    var savedMovieInfo = movieInfoEntityExchangeResult.getResponseBody();
+                    assertEquals("abc", savedMovieInfo.getMovieInfoId());
+                    assertEquals("Dark Knight Rises 1", savedMovieInfo.getName());
+                    // replacing the stored one moved it from version 0 to 1
+                    assertEquals(1L, savedMovieInfo.getVersion());
+                });
+
+        StepVerifier.create(movieInfoRepository.findById("abc"))
+                .assertNext(savedMovieInfo -> assertEquals("Dark Knight Rises 1", savedMovieInfo.getName()))
+                .verifyComplete();
+    }
+
+    @Test
+    void bulkAddMovieInfos() {
+        var body = String.join("\n",
+                "{\"name\":\"Inception\",\"year\":2010,\"cast\":[\"Leonardo DiCaprio\"],\"release_date\":\"2010-07-16\"}",
+                "{not json",
+                "",
+                "{\"name\":\"\",\"year\":-1,\"cast\":[\"Christian Bale\"]}",
+                "{\"movieInfoId\":\"abc\",\"name\":\"Dark Knight Rises\",\"year\":2012,\"cast\":[\"Tom Hardy\"]}",
+                "{\"name\":\"Interstellar\",\"year\":2014,\"cast\":[\"Matthew McConaughey\"]}") + "\n";
+
+        var results = webTestClient.post()
+                .uri(MOVIES_INFO_URI + "/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(MovieInfoBulkResult.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertEquals(1, results.size());
+        var result = results.get(0);
+        assertEquals(1, result.getFirstLine());
+        assertEquals(6, result.getLastLine());
+        assertEquals(2, result.getInserted());
+        // malformed, failing validation, duplicate id
+        assertEquals(List.of(2L, 4L, 5L), result.getRejected().stream().map(MovieInfoBulkResult.Rejected::getLine)
+                .collect(Collectors.toList()));
+        assertEquals("movieInfo.name must be present,movieInfo.year must be a Positive value",
+                result.getRejected().get(1).getError());
+
+        webTestClient.get()
+                .uri(MOVIES_INFO_URI)
+                .exchange()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(5);
+    }
+
     @Test
     void getAllMovieInfos() {
         webTestClient.get()
@@ -81,6 +172,42 @@ class MovieInfoControllerIntgTest {
                 .hasSize(3);
     }
 
+    @Test
+    void getAllMovieInfos_pages() {
+        // "abc" is stored as a string id and the generated ones as ObjectIds, so the pages cross both types
+        var movieInfoIds = new ArrayList<String>();
+        String cursor = null;
+        do {
+            var uri = UriComponentsBuilder.fromUriString(MOVIES_INFO_URI)
+                    .queryParam("limit", 1)
+                    .queryParamIfPresent("after", Optional.ofNullable(cursor))
+                    .buildAndExpand().toUri();
+            var result = webTestClient.get()
+                    .uri(uri)
+                    .exchange()
+                    .expectStatus()
+                    .is2xxSuccessful()
+                    .expectBodyList(MovieInfo.class)
+                    .hasSize(1)
+                    .returnResult();
+            movieInfoIds.add(result.getResponseBody().get(0).getMovieInfoId());
+            cursor = result.getResponseHeaders().getFirst(MovieInfoController.NEXT_CURSOR_HEADER);
+        } while (cursor != null);
+
+        assertEquals(3, movieInfoIds.size());
+        assertEquals("abc", movieInfoIds.get(0));
+        assertEquals(3, Set.copyOf(movieInfoIds).size());
+    }
+
+    @Test
+    void getAllMovieInfos_invalidCursor() {
+        webTestClient.get()
+                .uri(MOVIES_INFO_URI + "?after=not-a-cursor")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
     @Test
     void getAllMovieInfos_stream() {
 
@@ -234,6 +361,56 @@ class MovieInfoControllerIntgTest {
                 .isNotFound();
     }
 
+    @Test
+    void patchMovieInfoById() {
+
+        var MOVIE_ID = "abc";
+        var patch = new MovieInfo(null, "Dark Knight Rises 1", null, null, null);
+
+        webTestClient.patch()
+                .uri(MOVIES_INFO_URI + "/{id}", MOVIE_ID)
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader()
+                .valueEquals(HttpHeaders.ETAG, "\"1\"")
+                .expectBody(MovieInfo.class)
+                .consumeWith(movieInfoEntityExchangeResult -> {
+                    var patchedMovieInfo = movieInfoEntityExchangeResult.getResponseBody();
+                    assertNotNull(patchedMovieInfo);
+                    assertEquals("Dark Knight Rises 1", patchedMovieInfo.getName());
+                    assertEquals(2012, patchedMovieInfo.getYear());
+                    assertEquals(List.of("Christian Bale", "Tom Hardy"), patchedMovieInfo.getCast());
+                });
+    }
+
+    @Test
+    void updateMovieInfoById_staleVersion() {
+
+        var MOVIE_ID = "abc";
+        var movieInfo = new MovieInfo("abc", "Dark Knight Rises 1",
+                2012, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20"));
+
+        webTestClient.put()
+                .uri(MOVIES_INFO_URI + "/{id}", MOVIE_ID)
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
+                .bodyValue(movieInfo)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful();
+
+        // the first update moved it to version 1
+        webTestClient.put()
+                .uri(MOVIES_INFO_URI + "/{id}", MOVIE_ID)
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
+                .bodyValue(movieInfo)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.PRECONDITION_FAILED);
+    }
+
     @Test
     void deleteMovieInfo() {
         var MOVIE_ID = "abc";
@@ -253,4 +430,51 @@ class MovieInfoControllerIntgTest {
                 .hasSize(2);
     }
 
-}
\ No newline at end of file
+    @Test
+    void getAllMovieInfos_stream_resumeWithLastEventId() {
+        post(new MovieInfo(null, "Batman Begins1",
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15")));
+
+        // the latest event tells where this client left off
+        var lastEvent = movieInfoEvents(null).blockFirst();
+        assertNotNull(lastEvent);
+        assertEquals("Batman Begins1", lastEvent.data().getName());
+
+        post(new MovieInfo(null, "Batman Begins2",
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15")));
+        post(new MovieInfo(null, "Batman Begins3",
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15")));
+
+        StepVerifier.create(movieInfoEvents(lastEvent.id()).map(event -> event.data().getName()))
+                .expectNext("Batman Begins2", "Batman Begins3")
+                .thenCancel()
+                .verify();
+    }
+
+    private void post(MovieInfo movieInfo) {
+        webTestClient.post()
+                .uri(MOVIES_INFO_URI)
+                .bodyValue(movieInfo)
+                .exchange()
+                .expectStatus()
+                .isCreated();
+    }
+
+    private Flux<ServerSentEvent<MovieInfo>> movieInfoEvents(String lastEventId) {
+        return webTestClient.get()
+                .uri(MOVIES_INFO_URI + "/stream")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .headers(headers -> {
+                    if (lastEventId != null) {
+                        headers.set("Last-Event-ID", lastEventId);
+                    }
+                })
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {
+                })
+                .getResponseBody();
+    }
+
+}
@@ -1,12 +1,16 @@
 package com.reactivespring.moviesinfoservice.repository;
 
 import com.reactivespring.moviesinfoservice.domain.MovieInfo;
+import org.bson.Document;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
 import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.time.LocalDate;
@@ -17,11 +21,18 @@ import static org.junit.jupiter.api.Assertions.*;
 
 @DataMongoTest
 @ActiveProfiles("test")
+@Import(MovieInfoIndexInitializer.class)
 public class MovieInfoRepositoryIntgTest {
 
     @Autowired
     MovieInfoRepository movieInfoRepository;
 
+    @Autowired
+    MovieInfoIndexInitializer movieInfoIndexInitializer;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
     @BeforeEach
     void setUp() {
         var movieInfos = List.of(new MovieInfo(null, "Batman Begins",
@@ -118,4 +129,20 @@ public class MovieInfoRepositoryIntgTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    void findByYear_usesIndex() {
+        var indexes = movieInfoIndexInitializer.ensureIndexes().block();
+        assertEquals("year", MovieInfoIndexInitializer.coveringIndex(indexes, List.of("year")));
+        assertEquals("name", MovieInfoIndexInitializer.coveringIndex(indexes, List.of("name")));
+
+        // the same filter findByYear sends
+        var explain = mongoTemplate.getCollection(mongoTemplate.getCollectionName(MovieInfo.class))
+                .flatMap(collection -> Mono.from(collection.find(new Document("year", 2005)).explain()))
+                .block();
+
+        var winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+        assertTrue(winningPlan.contains("IXSCAN"), winningPlan);
+        assertFalse(winningPlan.contains("COLLSCAN"), winningPlan);
+    }
+
+}
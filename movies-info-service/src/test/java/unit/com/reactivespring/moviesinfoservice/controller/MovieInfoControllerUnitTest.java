@@ -1,16 +1,32 @@
 package com.reactivespring.moviesinfoservice.controller;
 
 import com.reactivespring.moviesinfoservice.domain.MovieInfo;
+import com.reactivespring.moviesinfoservice.domain.MovieInfoPage;
+import com.reactivespring.moviesinfoservice.exception.MovieInfoVersionException;
+import com.reactivespring.moviesinfoservice.service.MovieInfoBulkService;
 import com.reactivespring.moviesinfoservice.service.MovieInfoService;
+import com.reactivespring.moviesinfoservice.stream.MovieInfoBroadcastHub;
+import com.reactivespring.moviesinfoservice.stream.MovieInfoEventLog;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.List;
 
@@ -20,6 +36,7 @@ import static org.mockito.Mockito.*;
 
 @WebFluxTest(controllers = MovieInfoController.class)
 @AutoConfigureWebTestClient
+@Import({MovieInfoBroadcastHub.class, MovieInfoEventLog.class})
 public class MovieInfoControllerUnitTest {
 
     @Autowired
@@ -28,8 +45,30 @@ public class MovieInfoControllerUnitTest {
     @MockBean
     private MovieInfoService movieInfoServiceMock;
 
+    @MockBean
+    private MovieInfoBulkService movieInfoBulkServiceMock;
+
+    @SpyBean
+    private MovieInfoBroadcastHub movieInfoBroadcastHub;
+
     static String MOVIES_INFO_URI = "/v1/movieinfo";
 
+    @TempDir
+    static Path streamLogDirectory;
+
+    @DynamicPropertySource
+    static void streamLogProperties(DynamicPropertyRegistry registry) {
+        registry.add("movieInfoStream.log.directory", streamLogDirectory::toString);
+    }
+
+    @TestConfiguration
+    static class MetricsConfig {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
     @Test
     void getAllMoviesInfo(){
         var movieInfos = List.of(new MovieInfo(null, "Batman Begins",
@@ -39,7 +78,7 @@ public class MovieInfoControllerUnitTest {
                 new MovieInfo("abc", "Dark Knight Rises",
                         2012, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20")));
 
-        when(movieInfoServiceMock.getAllMovieInfos()).thenReturn(Flux.fromIterable(movieInfos));
+        when(movieInfoServiceMock.getMovieInfoPage(any(), anyInt())).thenReturn(Mono.just(new MovieInfoPage(movieInfos, null)));
 
         webTestClient.get()
                 .uri(MOVIES_INFO_URI)
@@ -49,6 +88,33 @@ public class MovieInfoControllerUnitTest {
                 .expectBodyList(MovieInfo.class)
                 .hasSize(3);
     }
+    @Test
+    void getAllMoviesInfo_page() {
+        var movieInfos = List.of(new MovieInfo("abc", "Dark Knight Rises",
+                2012, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20")));
+
+        when(movieInfoServiceMock.getMovieInfoPage("cursor", 1)).thenReturn(Mono.just(new MovieInfoPage(movieInfos, "next")));
+
+        webTestClient.get()
+                .uri(MOVIES_INFO_URI + "?limit=1&after=cursor")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader()
+                .valueEquals(MovieInfoController.NEXT_CURSOR_HEADER, "next")
+                .expectBodyList(MovieInfo.class)
+                .hasSize(1);
+    }
+
+    @Test
+    void getAllMoviesInfo_invalidLimit() {
+        webTestClient.get()
+                .uri(MOVIES_INFO_URI + "?limit=0")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
     @Test
     void getMovieInfoById(){
 
@@ -128,7 +194,7 @@ public class MovieInfoControllerUnitTest {
         var movieInfo = new MovieInfo("abc", "Dark Knight Rises 1",
                 2012, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20"));
 
-        when(movieInfoServiceMock.updateMovieInfo(isA(MovieInfo.class), isA(String.class))).thenReturn(Mono.just(new MovieInfo(MOVIE_ID, "Dark Knight Rises 1", 2012,List.of("Christian Bale", "Tom Hardy"),  LocalDate.parse("2012-07-20"))));
+        when(movieInfoServiceMock.updateMovieInfo(isA(MovieInfo.class), isA(String.class), any())).thenReturn(Mono.just(new MovieInfo(MOVIE_ID, "Dark Knight Rises 1", 2012,List.of("Christian Bale", "Tom Hardy"),  LocalDate.parse("2012-07-20"))));
 
         webTestClient.put()
                 .uri(MOVIES_INFO_URI+"/{id}",MOVIE_ID)
@@ -146,6 +212,49 @@ public class MovieInfoControllerUnitTest {
                 });
     }
 
+    @Test
+    void patchMovieInfoById() {
+
+        var MOVIE_ID = "abc";
+        var patch = new MovieInfo(null, "Dark Knight Rises 1", null, null, null);
+        var patched = new MovieInfo(MOVIE_ID, "Dark Knight Rises 1",
+                2012, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20"), 2L);
+
+        when(movieInfoServiceMock.patchMovieInfo(isA(MovieInfo.class), eq(MOVIE_ID), eq(1L))).thenReturn(Mono.just(patched));
+
+        webTestClient.patch()
+                .uri(MOVIES_INFO_URI + "/{id}", MOVIE_ID)
+                .header(HttpHeaders.IF_MATCH, "\"1\"")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader()
+                .valueEquals(HttpHeaders.ETAG, "\"2\"")
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Dark Knight Rises 1")
+                .jsonPath("$.year").isEqualTo(2012);
+    }
+
+    @Test
+    void updateMovieInfoById_staleVersion() {
+
+        var MOVIE_ID = "abc";
+        var movieInfo = new MovieInfo("abc", "Dark Knight Rises 1",
+                2012, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20"));
+
+        when(movieInfoServiceMock.updateMovieInfo(isA(MovieInfo.class), eq(MOVIE_ID), eq(1L)))
+                .thenReturn(Mono.error(new MovieInfoVersionException("MovieInfo abc is not at version 1")));
+
+        webTestClient.put()
+                .uri(MOVIES_INFO_URI + "/{id}", MOVIE_ID)
+                .header(HttpHeaders.IF_MATCH, "\"1\"")
+                .bodyValue(movieInfo)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.PRECONDITION_FAILED);
+    }
+
     @Test
     void deleteMovieInfo(){
         var MOVIE_ID = "abc";
@@ -156,7 +265,7 @@ public class MovieInfoControllerUnitTest {
                         2008, List.of("Christian Bale", "HeathLedger"), LocalDate.parse("2008-07-18"))
                 );
 
-        when(movieInfoServiceMock.deleteMovieInfo(isA(String.class))).thenReturn(Mono.empty());
+        when(movieInfoServiceMock.deleteMovieInfo(isA(String.class))).thenReturn(Mono.just(true));
 
         webTestClient.delete()
                 .uri(MOVIES_INFO_URI+"/{id}",MOVIE_ID)
@@ -164,7 +273,9 @@ public class MovieInfoControllerUnitTest {
                 .expectStatus()
                 .isNoContent();
 
-        when(movieInfoServiceMock.getAllMovieInfos()).thenReturn(Flux.fromIterable(movieInfos));
+        verify(movieInfoBroadcastHub).publishDeleted(MOVIE_ID);
+
+        when(movieInfoServiceMock.getMovieInfoPage(any(), anyInt())).thenReturn(Mono.just(new MovieInfoPage(movieInfos, null)));
 
         webTestClient.get()
                 .uri(MOVIES_INFO_URI)
@@ -175,4 +286,19 @@ public class MovieInfoControllerUnitTest {
                 .hasSize(2);
     }
 
+    @Test
+    void deleteMovieInfo_notFound(){
+        var MOVIE_ID = "def";
+
+        when(movieInfoServiceMock.deleteMovieInfo(isA(String.class))).thenReturn(Mono.just(false));
+
+        webTestClient.delete()
+                .uri(MOVIES_INFO_URI+"/{id}",MOVIE_ID)
+                .exchange()
+                .expectStatus()
+                .isNoContent();
+
+        verify(movieInfoBroadcastHub, never()).publishDeleted(anyString());
+    }
+
 }
@@ -0,0 +1,279 @@
+package com.reactivespring.moviesinfoservice.stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.moviesinfoservice.domain.MovieInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class MovieInfoBroadcastHubTest {
+
+    private static final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @TempDir
+    Path logDirectory;
+
+    /**
+     * Drains on the publishing thread, so that every publication has been emitted once it returns.
+     */
+    private MovieInfoBroadcastHub newHub(int subscriberBufferSize) {
+        return new MovieInfoBroadcastHub(subscriberBufferSize, objectMapper, newEventLog(), new SimpleMeterRegistry(),
+                Schedulers.immediate());
+    }
+
+    private MovieInfoEventLog newEventLog() {
+        try {
+            return new MovieInfoEventLog(logDirectory, 1 << 20, 4);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Flux<DataBuffer> subscribe(MovieInfoBroadcastHub hub,
+                                              MovieInfoBroadcastHub.OverflowPolicy policy) {
+        return hub.subscribe(policy, null, MovieInfoBroadcastHub.Format.NDJSON, DefaultDataBufferFactory.sharedInstance);
+    }
+
+    private static String idOf(DataBuffer line) {
+        try {
+            return objectMapper.readValue(line.toString(StandardCharsets.UTF_8), MovieInfo.class).getMovieInfoId();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static MovieInfo movieInfo(int i) {
+        return new MovieInfo(String.valueOf(i), "Movie " + i, 2005, List.of("Christian Bale"), LocalDate.parse("2005-06-15"));
+    }
+
+    @Test
+    void publish_concurrentProducers_noEventIsLost() throws InterruptedException {
+        var hub = new MovieInfoBroadcastHub(100_000, objectMapper, newEventLog(), new SimpleMeterRegistry());
+        var producers = 8;
+        var perProducer = 5_000;
+
+        var received = subscribe(hub, MovieInfoBroadcastHub.OverflowPolicy.DISCONNECT)
+                .take(producers * perProducer)
+                .count()
+                .toFuture();
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        var start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perProducer; i++) {
+                    hub.publish(movieInfo(i));
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(producers * perProducer, received.join());
+        hub.close();
+    }
+
+    @Test
+    void publish_appendFails_laterEventsAreStillStreamed() throws IOException {
+        var failing = new AtomicBoolean(true);
+        var eventLog = new MovieInfoEventLog(logDirectory, 1 << 20, 4) {
+            @Override
+            public MovieInfoEvent append(byte[] json) {
+                if (failing.getAndSet(false)) {
+                    throw new UncheckedIOException(new IOException("No space left on device"));
+                }
+                return super.append(json);
+            }
+        };
+        var meterRegistry = new SimpleMeterRegistry();
+        var hub = new MovieInfoBroadcastHub(16, objectMapper, eventLog, meterRegistry, Schedulers.immediate());
+
+        StepVerifier.create(subscribe(hub, MovieInfoBroadcastHub.OverflowPolicy.DROP_OLDEST).map(MovieInfoBroadcastHubTest::idOf))
+                .then(() -> {
+                    hub.publish(movieInfo(1));
+                    hub.publish(movieInfo(2));
+                })
+                .expectNext("2")
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+        assertEquals(1, meterRegistry.counter("movieinfo.stream.append.failures").count());
+    }
+
+    @Test
+    void publish_manySubscribers_encodesEachMovieInfoOnce() throws IOException {
+        var subscribers = 1_000;
+        var events = 200;
+        var encoder = spy(objectMapper);
+        var hub = new MovieInfoBroadcastHub(events, encoder, newEventLog(), new SimpleMeterRegistry(),
+                Schedulers.immediate());
+        var received = new AtomicLong();
+        var subscriptions = new ArrayList<Disposable>();
+        for (int s = 0; s < subscribers; s++) {
+            subscriptions.add(subscribe(hub, MovieInfoBroadcastHub.OverflowPolicy.DROP_OLDEST)
+                    .subscribe(line -> received.incrementAndGet()));
+        }
+
+        for (int i = 0; i < events; i++) {
+            hub.publish(movieInfo(i));
+        }
+        subscriptions.forEach(Disposable::dispose);
+
+        assertEquals((long) subscribers * events, received.get());
+        // the encoding cost does not grow with the number of subscribers
+        verify(encoder, times(events)).writeValueAsBytes(any(MovieInfo.class));
+    }
+
+    @Test
+    void subscribe_receivesLatestThenLive() {
+        var hub = newHub(16);
+        hub.publish(movieInfo(1));
+        hub.publish(movieInfo(2));
+
+        StepVerifier.create(subscribe(hub, MovieInfoBroadcastHub.OverflowPolicy.DROP_OLDEST).map(MovieInfoBroadcastHubTest::idOf))
+                .expectNext("2")
+                .then(() -> hub.publish(movieInfo(3)))
+                .expectNext("3")
+                .thenCancel()
+                .verify();
+        assertEquals(0, hub.subscriberCount());
+    }
+
+    @Test
+    void subscribe_slowSubscriber_dropOldestKeepsNewest() {
+        var hub = newHub(2);
+
+        StepVerifier.create(subscribe(hub, MovieInfoBroadcastHub.OverflowPolicy.DROP_OLDEST).map(MovieInfoBroadcastHubTest::idOf), 0)
+                .then(() -> {
+                    for (int i = 1; i <= 5; i++) {
+                        hub.publish(movieInfo(i));
+                    }
+                })
+                .thenRequest(2)
+                .expectNext("4", "5")
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void subscribe_slowSubscriber_disconnect() {
+        var hub = newHub(2);
+
+        StepVerifier.create(subscribe(hub, MovieInfoBroadcastHub.OverflowPolicy.DISCONNECT), 0)
+                .then(() -> {
+                    for (int i = 1; i <= 5; i++) {
+                        hub.publish(movieInfo(i));
+                    }
+                })
+                .thenRequest(5)
+                .expectNextCount(2)
+                .expectErrorMatches(Exceptions::isOverflow)
+                .verify(Duration.ofSeconds(1));
+        assertEquals(0, hub.subscriberCount());
+    }
+
+    @Test
+    void subscribe_after_catchesUpFromTheLogThenFollowsLive() {
+        var hub = newHub(16);
+        for (int i = 1; i <= 3; i++) {
+            hub.publish(movieInfo(i));
+        }
+
+        var events = hub.subscribe(MovieInfoBroadcastHub.OverflowPolicy.DROP_OLDEST, 1L,
+                MovieInfoBroadcastHub.Format.NDJSON, DefaultDataBufferFactory.sharedInstance);
+
+        StepVerifier.create(events.map(MovieInfoBroadcastHubTest::idOf))
+                .expectNext("2", "3")
+                .then(() -> hub.publish(movieInfo(4)))
+                .expectNext("4")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void subscribe_after_liveEventsDuringTheCatchUp_areBounded() {
+        var meterRegistry = new SimpleMeterRegistry();
+        var hub = new MovieInfoBroadcastHub(2, objectMapper, newEventLog(), meterRegistry, Schedulers.immediate());
+        for (int i = 1; i <= 3; i++) {
+            hub.publish(movieInfo(i));
+        }
+
+        var events = hub.subscribe(MovieInfoBroadcastHub.OverflowPolicy.DROP_OLDEST, 1L,
+                MovieInfoBroadcastHub.Format.NDJSON, DefaultDataBufferFactory.sharedInstance);
+
+        // nothing requested, so the catch-up has not been read when the live events come in
+        StepVerifier.create(events.map(MovieInfoBroadcastHubTest::idOf), 0)
+                .then(() -> {
+                    for (int i = 4; i <= 8; i++) {
+                        hub.publish(movieInfo(i));
+                    }
+                })
+                .thenRequest(Long.MAX_VALUE)
+                .expectNext("2", "3", "7", "8")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+        assertEquals(3, meterRegistry.counter("movieinfo.stream.overflow", "policy", "DROP_OLDEST").count());
+    }
+
+    @Test
+    void publishDeleted_streamsATombstone() {
+        var hub = newHub(16);
+
+        StepVerifier.create(subscribe(hub, MovieInfoBroadcastHub.OverflowPolicy.DROP_OLDEST)
+                        .map(line -> line.toString(StandardCharsets.UTF_8)))
+                .then(() -> hub.publishDeleted("abc"))
+                .expectNext("{\"movieInfoId\":\"abc\",\"deleted\":true}\n")
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void subscribe_sse_framesCarryTheSequenceNumber() {
+        var hub = newHub(16);
+        hub.publish(movieInfo(1));
+
+        var events = hub.subscribe(MovieInfoBroadcastHub.OverflowPolicy.DROP_OLDEST, null,
+                MovieInfoBroadcastHub.Format.SSE, DefaultDataBufferFactory.sharedInstance);
+
+        StepVerifier.create(events.map(frame -> frame.toString(StandardCharsets.UTF_8)))
+                .assertNext(frame -> {
+                    assertTrue(frame.startsWith("id:1\ndata:{"));
+                    assertTrue(frame.endsWith("}\n\n"));
+                })
+                .thenCancel()
+                .verify();
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.reactivespring.moviesinfoservice.stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MovieInfoEventLogTest {
+
+    @TempDir
+    Path directory;
+
+    private static byte[] json(int i) {
+        return ("{\"movieInfoId\":\"" + i + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(MovieInfoEvent event) {
+        return new String(event.getJson(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void append_numbersEventsAndReadsThemBack() throws IOException {
+        var eventLog = new MovieInfoEventLog(directory, 4096, 4);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, eventLog.append(json(i)).getSeq());
+        }
+
+        StepVerifier.create(eventLog.read(2, 4).map(MovieInfoEvent::getSeq))
+                .expectNext(3L, 4L)
+                .verifyComplete();
+    }
+
+    @Test
+    void recover_continuesAfterARestart() throws IOException {
+        var eventLog = new MovieInfoEventLog(directory, 4096, 4);
+        for (int i = 1; i <= 3; i++) {
+            eventLog.append(json(i));
+        }
+        eventLog.close();
+
+        var reopened = new MovieInfoEventLog(directory, 4096, 4);
+        assertEquals(3, reopened.lastSeq());
+        assertEquals("{\"movieInfoId\":\"3\"}", text(reopened.latest()));
+        assertEquals(4, reopened.append(json(4)).getSeq());
+
+        StepVerifier.create(reopened.read(0, Long.MAX_VALUE).map(MovieInfoEvent::getSeq))
+                .expectNext(1L, 2L, 3L, 4L)
+                .verifyComplete();
+    }
+
+    @Test
+    void append_rollsSegmentsAndDropsTheOldest() throws IOException {
+        // room for a few records per segment
+        var eventLog = new MovieInfoEventLog(directory, 128, 2);
+        for (int i = 1; i <= 20; i++) {
+            eventLog.append(json(i));
+        }
+
+        try (var files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+        StepVerifier.create(eventLog.read(0, Long.MAX_VALUE).map(MovieInfoEvent::getSeq).takeLast(1))
+                .expectNext(20L)
+                .verifyComplete();
+    }
+
+}
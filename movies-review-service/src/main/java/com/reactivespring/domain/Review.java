@@ -5,6 +5,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.Min;
@@ -14,6 +15,8 @@ import javax.validation.constraints.NotNull;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document
+// also serves the queries on movieInfoId alone, as its prefix
+@CompoundIndex(name = "movieInfoId_rating", def = "{'movieInfoId': 1, 'rating': -1}")
 public class Review {
 
     @Id
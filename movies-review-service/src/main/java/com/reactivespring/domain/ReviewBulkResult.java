@@ -0,0 +1,32 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Outcome of one batch of a bulk ingest: the lines it covered, how many reviews were inserted
+ * and why each of the other lines was rejected.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewBulkResult {
+
+    private long batch;
+    private long firstLine;
+    private long lastLine;
+    private int inserted;
+    private List<Rejected> rejected;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Rejected {
+        private long line;
+        private String error;
+    }
+
+}
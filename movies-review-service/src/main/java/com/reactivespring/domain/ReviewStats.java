@@ -0,0 +1,54 @@
+package com.reactivespring.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Review aggregates of one movie, kept up to date as reviews are added, updated and deleted.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document
+public class ReviewStats {
+
+    @Id
+    private Long movieInfoId;
+    private long count;
+    // reviews with a rating, what sum and average are over
+    private long rated;
+    private double sum;
+    // number of ratings per whole-number bucket, "7" holds ratings from 7.0 up to 8.0
+    private Map<String, Long> histogram = new HashMap<>();
+    // server time of the last write, what tells a rebuild which stats changed while it ran
+    @JsonIgnore
+    private Instant updatedAt;
+
+    public ReviewStats(Long movieInfoId, long count, long rated, double sum, Map<String, Long> histogram) {
+        this(movieInfoId, count, rated, sum, histogram, null);
+    }
+
+    public static ReviewStats empty(Long movieInfoId) {
+        return new ReviewStats(movieInfoId, 0, 0, 0, new HashMap<>());
+    }
+
+    public Double getAverage() {
+        return rated == 0 ? null : sum / rated;
+    }
+
+    /**
+     * The histogram bucket of a rating, ratings of 10 and above share the last one.
+     */
+    public static String bucket(double rating) {
+        return String.valueOf((int) Math.min(Math.floor(rating), 10));
+    }
+
+}
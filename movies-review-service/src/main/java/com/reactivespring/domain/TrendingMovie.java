@@ -0,0 +1,16 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TrendingMovie {
+
+    private Long movieInfoId;
+    // estimated reviews within the window, never below the actual count
+    private long reviews;
+
+}
@@ -1,72 +1,266 @@
 package com.reactivespring.handler;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewBulkResult;
+import com.reactivespring.domain.ReviewStats;
 import com.reactivespring.exception.ReviewDataException;
 import com.reactivespring.exception.ReviewNotFoundException;
 import com.reactivespring.repository.ReviewReactorRepository;
+import com.reactivespring.repository.ReviewStatsRepository;
+import com.reactivespring.repository.ReviewWriteCoalescer;
+import com.reactivespring.stream.FlushCoalescer;
+import com.reactivespring.stream.ReviewEventEncoder;
+import com.reactivespring.stream.ReviewPartitionedHub;
+import com.reactivespring.stream.ReviewReplayStore;
+import com.reactivespring.stream.ReviewTrendingEngine;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.Validator;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Component
 public class ReviewHandler {
 
+    private static final StringDecoder LINE_DECODER = StringDecoder.allMimeTypes();
+
     @Autowired
     private Validator validator;
 
     private ReviewReactorRepository reviewReactorRepository;
 
-    Sinks.Many<Review> reviewSink = Sinks.many().replay().all();
+    private ReviewReplayStore reviewReplayStore;
+
+    private ReviewPartitionedHub reviewPartitionedHub;
+
+    private ReviewEventEncoder reviewEventEncoder;
+
+    private ObjectMapper objectMapper;
+
+    private ReviewWriteCoalescer reviewWriteCoalescer;
+
+    private ReviewStatsRepository reviewStatsRepository;
+
+    private ReviewTrendingEngine reviewTrendingEngine;
+
+    @Value("${reviews.bulk.batchSize:500}")
+    private int bulkBatchSize;
+
+    @Value("${reviews.bulk.concurrency:4}")
+    private int bulkConcurrency;
+
+    @Value("${reviewsStream.flush.window:5ms}")
+    private Duration flushWindow;
+
+    @Value("${reviewsStream.flush.maxBytes:16384}")
+    private int flushMaxBytes;
 
 
-    public ReviewHandler(ReviewReactorRepository reviewReactorRepository) {
+    public ReviewHandler(ReviewReactorRepository reviewReactorRepository, ReviewReplayStore reviewReplayStore,
+                         ReviewPartitionedHub reviewPartitionedHub, ReviewEventEncoder reviewEventEncoder,
+                         ObjectMapper objectMapper, ReviewWriteCoalescer reviewWriteCoalescer,
+                         ReviewStatsRepository reviewStatsRepository, ReviewTrendingEngine reviewTrendingEngine) {
         this.reviewReactorRepository = reviewReactorRepository;
+        this.reviewReplayStore = reviewReplayStore;
+        this.reviewPartitionedHub = reviewPartitionedHub;
+        this.reviewEventEncoder = reviewEventEncoder;
+        this.objectMapper = objectMapper;
+        this.reviewWriteCoalescer = reviewWriteCoalescer;
+        this.reviewStatsRepository = reviewStatsRepository;
+        this.reviewTrendingEngine = reviewTrendingEngine;
     }
 
 
     public Mono<ServerResponse> addReview(ServerRequest serverRequest) {
         return serverRequest.bodyToMono(Review.class)
                 .doOnNext(this::validate)
-                .flatMap(reviewReactorRepository::save)
-                .doOnNext(review -> reviewSink.tryEmitNext(review))
+                .flatMap(this::save)
+                .doOnNext(this::publish)
                 .flatMap(savedReview -> ServerResponse.status(HttpStatus.CREATED).bodyValue(savedReview));
     }
 
+    /**
+     * Saves the review and adds it to the stats. An id from the client may belong to a review that already
+     * exists; that one is replaced in a single find-and-replace and taken out of the stats again.
+     */
+    private Mono<Review> save(Review review) {
+        if (review.getReviewId() == null) {
+            return reviewWriteCoalescer.insert(review)
+                    .flatMap(savedReview -> reviewStatsRepository.applyChange(null, savedReview).thenReturn(savedReview));
+        }
+        return reviewReactorRepository.replaceReview(review)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(previous -> reviewStatsRepository.applyChange(previous.orElse(null), review).thenReturn(review));
+    }
+
+    private void publish(Review savedReview) {
+        // encoded once for the replay history and all stream subscribers
+        var event = reviewEventEncoder.encode(savedReview);
+        reviewReplayStore.append(event);
+        reviewPartitionedHub.publish(savedReview.getMovieInfoId(), event);
+        reviewTrendingEngine.record(savedReview.getMovieInfoId());
+    }
+
     private void validate(Review review) {
+        var errorMessage = validationErrors(review);
+        log.info("constraintViolations: {}", errorMessage);
+        if (errorMessage != null) {
+            throw new ReviewDataException(errorMessage);
+
+        }
+    }
+
+    private String validationErrors(Review review) {
         var constraintViolations = validator.validate(review);
-        log.info("constraintViolations: {}", constraintViolations);
         if (constraintViolations.size() > 0) {
-            var errorMessage = constraintViolations.stream().map(ConstraintViolation::getMessage)
+            return constraintViolations.stream().map(ConstraintViolation::getMessage)
                     .sorted()
                     .collect(Collectors.joining(","));
-            throw new ReviewDataException(errorMessage);
+        }
+        return null;
+    }
+
+    public Mono<ServerResponse> bulkAddReviews(ServerRequest serverRequest) {
+        // publish=true also sends the inserted reviews to the review stream, a batch at a time
+        var publish = serverRequest.queryParam("publish").map(Boolean::parseBoolean).orElse(false);
+
+        // split into lines here and parsed one by one, so a bad line is rejected on its own instead of failing the upload
+        var lines = LINE_DECODER.decode(serverRequest.bodyToFlux(DataBuffer.class),
+                ResolvableType.forClass(String.class), null, Map.of());
+        var results = lines
+                .index((index, text) -> new BulkLine(index + 1, text))
+                .filter(line -> !line.text.isBlank())
+                .map(this::parse)
+                .buffer(bulkBatchSize)
+                .index()
+                // a few batches in flight, results still in order; the body is only read as fast as they complete
+                .flatMapSequential(batch -> insert(batch.getT1() + 1, batch.getT2(), publish), bulkConcurrency, 1);
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_NDJSON).body(results, ReviewBulkResult.class);
+    }
+
+    private BulkLine parse(BulkLine line) {
+        try {
+            var review = objectMapper.readValue(line.text, Review.class);
+            line.error = validationErrors(review);
+            if (line.error == null) {
+                line.review = review;
+            }
+        } catch (JsonProcessingException e) {
+            line.error = "Invalid review : " + e.getOriginalMessage();
+        }
+        return line;
+    }
+
+    private Mono<ReviewBulkResult> insert(long batchNumber, List<BulkLine> batch, boolean publish) {
+        var rejected = new ArrayList<ReviewBulkResult.Rejected>();
+        var accepted = new ArrayList<Review>();
+        var acceptedLines = new ArrayList<BulkLine>();
+        for (var line : batch) {
+            if (line.review == null) {
+                rejected.add(new ReviewBulkResult.Rejected(line.number, line.error));
+                continue;
+            }
+            if (line.review.getReviewId() == null) {
+                // assigned here rather than by the driver, so the inserted reviews can be published with their ids
+                line.review.setReviewId(new ObjectId().toHexString());
+            }
+            accepted.add(line.review);
+            acceptedLines.add(line);
+        }
+
+        var inserts = accepted.isEmpty()
+                ? Mono.<Map<Integer, String>>just(Map.of())
+                : reviewReactorRepository.insertUnordered(accepted);
+        return inserts.flatMap(failures -> {
+            failures.forEach((position, error) ->
+                    rejected.add(new ReviewBulkResult.Rejected(acceptedLines.get(position).number, error)));
+            var inserted = new ArrayList<Review>();
+            for (int i = 0; i < accepted.size(); i++) {
+                if (!failures.containsKey(i)) {
+                    inserted.add(accepted.get(i));
+                }
+            }
+            if (publish) {
+                inserted.forEach(this::publish);
+            }
+            rejected.sort(Comparator.comparingLong(ReviewBulkResult.Rejected::getLine));
+            var result = new ReviewBulkResult(batchNumber, batch.get(0).number, batch.get(batch.size() - 1).number,
+                    inserted.size(), rejected);
+            return reviewStatsRepository.applyAdded(inserted).thenReturn(result);
+        });
+    }
 
+    private static final class BulkLine {
+        private final long number;
+        private final String text;
+        private Review review;
+        private String error;
+
+        private BulkLine(long number, String text) {
+            this.number = number;
+            this.text = text;
         }
     }
 
     public Mono<ServerResponse> getReviews(ServerRequest serverRequest) {
-        var movieInfoId = serverRequest.queryParam("movieInfoId");
+        var movieInfoIds = serverRequest.queryParams().getOrDefault("movieInfoId", List.of());
 
-        if (movieInfoId.isPresent()) {
-            var reviewFlux = reviewReactorRepository.findReviewByMovieInfoId(Long.valueOf(movieInfoId.get()));
-            return buildReviewsResponse(reviewFlux);
-        } else {
+        if (movieInfoIds.isEmpty()) {
             var reviewsFlux = reviewReactorRepository.findAll();
             return buildReviewsResponse(reviewsFlux);
         }
 
+        // an id that is not numeric matches no review, it must not fail the other ids of a batch
+        var ids = movieInfoIds.stream()
+                .map(ReviewHandler::toMovieInfoId)
+                .flatMap(Optional::stream)
+                .distinct()
+                .collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            return buildReviewsResponse(Flux.empty());
+        } else if (ids.size() == 1) {
+            var reviewFlux = reviewReactorRepository.findReviewByMovieInfoId(ids.get(0));
+            return buildReviewsResponse(reviewFlux);
+        } else {
+            // batched lookup from movies-service, answered with a single query
+            var reviewFlux = reviewReactorRepository.findReviewByMovieInfoIdIn(ids);
+            return buildReviewsResponse(reviewFlux);
+        }
+
+    }
+
+    private static Optional<Long> toMovieInfoId(String movieInfoId) {
+        try {
+            return Optional.of(Long.valueOf(movieInfoId));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
     }
 
     private static Mono<ServerResponse> buildReviewsResponse(Flux<Review> reviewFlux) {
@@ -76,20 +270,16 @@ public class ReviewHandler {
     public Mono<ServerResponse> updateReview(ServerRequest serverRequest) {
         var id = serverRequest.pathVariable("id");
 
-
-        var existingReview = reviewReactorRepository.findById(id);
-//                .switchIfEmpty(Mono.error(new ReviewNotFoundException("Review not found for the given Review id "+ id)));
-
-
-        return existingReview
-                .flatMap(review -> serverRequest.bodyToMono(Review.class)
-                        .map(
-                                reqReview -> {
-                                    review.setComment(reqReview.getComment());
-                                    review.setRating(reqReview.getRating());
-                                    return review;
-                                }
-                        )).flatMap(reviewReactorRepository::save)
+        // the body is read first, then a single find-and-modify both checks the review exists and updates it;
+        // it returns the review as it was, for the stats to swap the old rating for the new one
+        return serverRequest.bodyToMono(Review.class)
+                .flatMap(reqReview -> reviewReactorRepository.updateCommentAndRating(id, reqReview.getComment(),
+                                reqReview.getRating())
+                        .flatMap(previous -> {
+                            var savedReview = new Review(previous.getReviewId(), previous.getMovieInfoId(),
+                                    reqReview.getComment(), reqReview.getRating());
+                            return reviewStatsRepository.applyChange(previous, savedReview).thenReturn(savedReview);
+                        }))
                 .flatMap(savedReview -> ServerResponse.ok().bodyValue(savedReview))
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
@@ -97,18 +287,117 @@ public class ReviewHandler {
     public Mono<ServerResponse> deleteReview(ServerRequest serverRequest) {
         var id = serverRequest.pathVariable("id");
 
-        var existingReview = reviewReactorRepository.findById(id);
+        return reviewReactorRepository.deleteReviewById(id)
+                .flatMap(deleted -> reviewStatsRepository.applyChange(deleted, null)
+                        .then(ServerResponse.noContent().build()))
+                .switchIfEmpty(ServerResponse.notFound().build());
 
-        return existingReview
-                .flatMap(review -> reviewReactorRepository.deleteById(id))
-                .then(ServerResponse.noContent().build());
+    }
+
+    public Mono<ServerResponse> getReviewStats(ServerRequest serverRequest) {
+        var movieInfoId = serverRequest.queryParam("movieInfoId")
+                .map(this::parseMovieInfoId)
+                .orElseThrow(() -> new ReviewDataException("movieInfoId : please pass a movieInfoId"));
+
+        // a single read of the maintained aggregates, a movie without reviews has empty stats
+        return reviewStatsRepository.findById(movieInfoId)
+                .defaultIfEmpty(ReviewStats.empty(movieInfoId))
+                .flatMap(stats -> ServerResponse.ok().bodyValue(stats));
+    }
+
+    public Mono<ServerResponse> rebuildReviewStats(ServerRequest serverRequest) {
+        return reviewStatsRepository.rebuild()
+                .flatMap(movies -> ServerResponse.ok().bodyValue(Map.of("movies", movies)));
+    }
+
+    public Mono<ServerResponse> getTrendingMovies(ServerRequest serverRequest) {
+        // window: one of the configured windows, the shortest by default
+        var window = serverRequest.queryParam("window")
+                .map(value -> parseDuration("window", value))
+                .orElse(reviewTrendingEngine.windows().iterator().next());
+        var limit = serverRequest.queryParam("limit")
+                .map(this::parseLimit)
+                .orElse(10);
 
+        var trending = reviewTrendingEngine.trending(window, limit);
+        if (trending == null) {
+            throw new ReviewDataException("window : please pass one of " + reviewTrendingEngine.windows().stream()
+                    .map(Duration::toString)
+                    .collect(Collectors.joining(",")));
+        }
+        return ServerResponse.ok().bodyValue(trending);
     }
 
     public Mono<ServerResponse> getReviewsStream(ServerRequest serverRequest) {
 
+        var movieInfoId = serverRequest.queryParam("movieInfoId");
+        if (movieInfoId.isPresent()) {
+            // live reviews of a single movie only, without history
+            var events = reviewPartitionedHub.subscribe(parseMovieInfoId(movieInfoId.get()), bufferFactory(serverRequest));
+            return streamResponse(events, serverRequest);
+        }
+
+        // replay: how many past reviews to send first (all retained ones by default), since: how far back, e.g. 5m
+        var replay = serverRequest.queryParam("replay")
+                .map(this::parseReplay)
+                .orElse(Integer.MAX_VALUE);
+        var since = serverRequest.queryParam("since")
+                .map(value -> parseDuration("since", value))
+                .orElse(null);
+
+        var events = reviewReplayStore.subscribe(replay, since, bufferFactory(serverRequest));
+        return streamResponse(events, serverRequest);
+
+    }
+
+    private Mono<ServerResponse> streamResponse(Flux<DataBuffer> events, ServerRequest serverRequest) {
+        var coalesced = FlushCoalescer.coalesce(events, flushWindow, flushMaxBytes, bufferFactory(serverRequest));
         return ServerResponse.ok().contentType(MediaType.APPLICATION_NDJSON)
-                .body(reviewSink.asFlux(), Review.class).log();
+                .body(BodyInserters.fromDataBuffers(coalesced));
+    }
+
+
+    private static DataBufferFactory bufferFactory(ServerRequest serverRequest) {
+        return serverRequest.exchange().getResponse().bufferFactory();
+    }
 
+    private Long parseMovieInfoId(String movieInfoId) {
+        try {
+            return Long.valueOf(movieInfoId);
+        } catch (NumberFormatException e) {
+            throw new ReviewDataException("movieInfoId : please pass a numeric movieInfoId");
+        }
+    }
+
+    private int parseReplay(String replay) {
+        try {
+            var count = Integer.parseInt(replay);
+            if (count < 0) {
+                throw new ReviewDataException("replay : please pass a non-negative value");
+            }
+            return count;
+        } catch (NumberFormatException e) {
+            throw new ReviewDataException("replay : please pass a number of reviews");
+        }
+    }
+
+    private int parseLimit(String limit) {
+        try {
+            var count = Integer.parseInt(limit);
+            if (count <= 0) {
+                throw new ReviewDataException("limit : please pass a positive value");
+            }
+            return count;
+        } catch (NumberFormatException e) {
+            throw new ReviewDataException("limit : please pass a number of movies");
+        }
+    }
+
+    private Duration parseDuration(String name, String duration) {
+        try {
+            return DurationStyle.detectAndParse(duration);
+        } catch (IllegalArgumentException e) {
+            throw new ReviewDataException(name + " : please pass a duration such as 5m or PT5M");
+        }
     }
 }
@@ -0,0 +1,85 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.Review;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Creates the indexes declared on {@link Review} at startup, or verifies they are already there,
+ * and reports which repository queries they cover.
+ */
+@Component
+@Slf4j
+public class ReviewIndexInitializer implements ApplicationRunner {
+
+    // the fields each query filters or sorts on, in order
+    private static final Map<String, List<String>> QUERIES = new LinkedHashMap<>();
+
+    static {
+        QUERIES.put("findReviewByMovieInfoId", List.of("movieInfoId"));
+        QUERIES.put("findReviewByMovieInfoIdIn", List.of("movieInfoId"));
+    }
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    public ReviewIndexInitializer(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        // startup runs off the event loop, so it can wait for the indexes before taking traffic; a failure
+        // fails startup instead of leaving the queries to scan the whole collection
+        var indexes = ensureIndexes().block(Duration.ofSeconds(30));
+        QUERIES.forEach((query, fields) -> {
+            var index = coveringIndex(indexes, fields);
+            if (index != null) {
+                log.info("Index coverage : {} {} -> {}", query, fields, index);
+            } else {
+                log.warn("Index coverage : {} {} -> NOT COVERED, collection scan", query, fields);
+            }
+        });
+    }
+
+    /**
+     * Ensures every index declared on {@link Review} exists and returns all the indexes of the collection.
+     */
+    public Mono<List<IndexInfo>> ensureIndexes() {
+        var resolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        var indexOps = mongoTemplate.indexOps(Review.class);
+        return Flux.<IndexDefinition>fromIterable(resolver.resolveIndexFor(Review.class))
+                .concatMap(indexOps::ensureIndex)
+                .thenMany(indexOps.getIndexInfo())
+                .collectList();
+    }
+
+    /**
+     * The name of an index whose leading keys are {@code fields}, or {@code null}.
+     */
+    public static String coveringIndex(List<IndexInfo> indexes, List<String> fields) {
+        return indexes.stream()
+                .filter(index -> {
+                    var keys = index.getIndexFields().stream().map(IndexField::getKey).collect(Collectors.toList());
+                    return keys.size() >= fields.size() && keys.subList(0, fields.size()).equals(fields);
+                })
+                .map(IndexInfo::getName)
+                .findFirst()
+                .orElse(null);
+    }
+
+}
@@ -5,8 +5,12 @@ import com.reactivespring.domain.Review;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
 
-public interface ReviewReactorRepository extends ReactiveMongoRepository<Review, String> {
+import java.util.Collection;
+
+public interface ReviewReactorRepository extends ReactiveMongoRepository<Review, String>, ReviewReactorRepositoryCustom {
 
 
     Flux<Review> findReviewByMovieInfoId(Long movieInfoId);
+
+    Flux<Review> findReviewByMovieInfoIdIn(Collection<Long> movieInfoIds);
 }
@@ -0,0 +1,34 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.Review;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+public interface ReviewReactorRepositoryCustom {
+
+    /**
+     * Sets the comment and rating of the review in one find-and-modify and returns the review as it was
+     * before, so the caller knows the rating it replaced. Empty when there is no such review.
+     */
+    Mono<Review> updateCommentAndRating(String reviewId, String comment, Double rating);
+
+    /**
+     * Inserts the review, or replaces the one with the same id, in one find-and-replace and returns the review
+     * it replaced, so the caller knows the rating it took out. Empty when the review is new.
+     */
+    Mono<Review> replaceReview(Review review);
+
+    /**
+     * Deletes the review in one find-and-remove and returns it, empty when there is no such review.
+     */
+    Mono<Review> deleteReviewById(String reviewId);
+
+    /**
+     * Inserts the reviews with one unordered insertMany, so a failing review doesn't stop the others.
+     * Returns the position in {@code reviews} and error of each one that was not inserted.
+     */
+    Mono<Map<Integer, String>> insertUnordered(List<Review> reviews);
+
+}
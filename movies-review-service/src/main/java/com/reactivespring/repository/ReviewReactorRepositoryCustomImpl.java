@@ -0,0 +1,68 @@
+package com.reactivespring.repository;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import com.reactivespring.domain.Review;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class ReviewReactorRepositoryCustomImpl implements ReviewReactorRepositoryCustom {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    public ReviewReactorRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Mono<Review> updateCommentAndRating(String reviewId, String comment, Double rating) {
+        var update = new Update()
+                .set("comment", comment)
+                .set("rating", rating);
+        return mongoTemplate.findAndModify(byId(reviewId), update,
+                FindAndModifyOptions.options().returnNew(false), Review.class);
+    }
+
+    @Override
+    public Mono<Review> replaceReview(Review review) {
+        return mongoTemplate.findAndReplace(byId(review.getReviewId()), review,
+                FindAndReplaceOptions.options().upsert());
+    }
+
+    @Override
+    public Mono<Review> deleteReviewById(String reviewId) {
+        return mongoTemplate.findAndRemove(byId(reviewId), Review.class);
+    }
+
+    @Override
+    public Mono<Map<Integer, String>> insertUnordered(List<Review> reviews) {
+        var documents = new ArrayList<Document>(reviews.size());
+        for (var review : reviews) {
+            var document = new Document();
+            mongoTemplate.getConverter().write(review, document);
+            documents.add(document);
+        }
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Review.class))
+                .flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+                .<Map<Integer, String>>map(result -> Map.of())
+                .onErrorResume(MongoBulkWriteException.class, e -> Mono.just(e.getWriteErrors().stream()
+                        .collect(Collectors.toMap(BulkWriteError::getIndex, BulkWriteError::getMessage))));
+    }
+
+    private static Query byId(String reviewId) {
+        return new Query(Criteria.where("_id").is(reviewId));
+    }
+
+}
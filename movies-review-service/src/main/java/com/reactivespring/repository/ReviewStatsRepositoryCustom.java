@@ -0,0 +1,28 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.Review;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+public interface ReviewStatsRepositoryCustom {
+
+    /**
+     * Moves the stats of the review's movie from {@code previous} to {@code current} with a single
+     * $inc upsert, or one per movie when a replaced review moved to another movie. {@code previous} is
+     * {@code null} for an added review, {@code current} for a deleted one.
+     */
+    Mono<Void> applyChange(Review previous, Review current);
+
+    /**
+     * Adds the reviews to the stats, one $inc upsert per movie.
+     */
+    Mono<Void> applyAdded(List<Review> added);
+
+    /**
+     * Recomputes the stats of every movie from the review collection and returns how many movies have stats.
+     * Stats that change while it runs are recomputed on their own, so the changes are not lost.
+     */
+    Mono<Long> rebuild();
+
+}
@@ -0,0 +1,190 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewStats;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+public class ReviewStatsRepositoryCustomImpl implements ReviewStatsRepositoryCustom {
+
+    private static final int MAX_RECOMPUTES = 3;
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    public ReviewStatsRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Mono<Void> applyChange(Review previous, Review current) {
+        if (previous != null && current != null && !Objects.equals(previous.getMovieInfoId(), current.getMovieInfoId())) {
+            // a replaced review that moved to another movie leaves the stats of the first one
+            return applyChange(previous, null).then(applyChange(null, current));
+        }
+        var delta = new Delta();
+        if (previous != null) {
+            delta.add(previous, -1);
+        }
+        if (current != null) {
+            delta.add(current, 1);
+        }
+        var movieInfoId = current != null ? current.getMovieInfoId() : previous.getMovieInfoId();
+        return upsert(movieInfoId, delta);
+    }
+
+    @Override
+    public Mono<Void> applyAdded(List<Review> added) {
+        var deltas = new LinkedHashMap<Long, Delta>();
+        added.forEach(review -> deltas.computeIfAbsent(review.getMovieInfoId(), id -> new Delta()).add(review, 1));
+        return Flux.fromIterable(deltas.entrySet())
+                .concatMap(entry -> upsert(entry.getKey(), entry.getValue()))
+                .then();
+    }
+
+    private Mono<Void> upsert(Long movieInfoId, Delta delta) {
+        if (delta.isEmpty()) {
+            // e.g. an update that kept the rating
+            return Mono.empty();
+        }
+        var update = new Update();
+        delta.counts.forEach(update::inc);
+        if (delta.sum != 0) {
+            update.inc("sum", delta.sum);
+        }
+        update.currentDate("updatedAt");
+        return mongoTemplate.upsert(new Query(Criteria.where("_id").is(movieInfoId)), update, ReviewStats.class)
+                .then();
+    }
+
+    @Override
+    public Mono<Long> rebuild() {
+        // every write stamps updatedAt with the server's clock, so stats stamped at or after the start changed
+        // while this rebuild ran. Those are recomputed on their own rather than overwritten, which would drop
+        // the increments that landed after the aggregation read the reviews
+        return serverTime()
+                .flatMap(start -> aggregateStats(null)
+                        .concatMap(stats -> setIfUnchangedSince(stats, start)
+                                .onErrorResume(DuplicateKeyException.class, e -> recompute(stats.getMovieInfoId()))
+                                .thenReturn(stats))
+                        .count()
+                        // neither written by this rebuild nor changed since it started, so without reviews
+                        .flatMap(rebuilt -> mongoTemplate.remove(new Query(Criteria.where("updatedAt").not().gte(start)),
+                                        ReviewStats.class)
+                                .thenReturn(rebuilt)));
+    }
+
+    private Mono<Date> serverTime() {
+        return mongoTemplate.executeCommand(new Document("hello", 1))
+                .map(reply -> reply.getDate("localTime"));
+    }
+
+    /**
+     * The stats of every movie with reviews, or of only {@code movieInfoId} when given.
+     */
+    private Flux<ReviewStats> aggregateStats(Long movieInfoId) {
+        var stages = new ArrayList<AggregationOperation>();
+        if (movieInfoId != null) {
+            stages.add(Aggregation.match(Criteria.where("movieInfoId").is(movieInfoId)));
+        }
+        // one row per movie and whole-number rating, in movie order so each movie's rows arrive together
+        stages.add(Aggregation.project("movieInfoId", "rating")
+                .and(ArithmeticOperators.Floor.floorValueOf("rating")).as("bucket"));
+        stages.add(Aggregation.group("movieInfoId", "bucket").count().as("count").sum("rating").as("sum"));
+        stages.add(Aggregation.sort(Sort.Direction.ASC, "movieInfoId"));
+        var aggregation = Aggregation.newAggregation(stages)
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+        return mongoTemplate.aggregate(aggregation, Review.class, Document.class)
+                .bufferUntilChanged(row -> movieInfoId(row))
+                .map(ReviewStatsRepositoryCustomImpl::toStats);
+    }
+
+    /**
+     * Sets the counts of the movie to {@code stats}, unless an increment changed them at or after {@code since}.
+     * Then the upsert finds no match and fails with a {@link DuplicateKeyException} trying to insert the movie again.
+     */
+    private Mono<Void> setIfUnchangedSince(ReviewStats stats, Date since) {
+        var query = new Query(Criteria.where("_id").is(stats.getMovieInfoId()).and("updatedAt").not().gte(since));
+        var update = new Update()
+                .set("count", stats.getCount())
+                .set("rated", stats.getRated())
+                .set("sum", stats.getSum())
+                .set("histogram", stats.getHistogram())
+                .set("updatedAt", since);
+        return mongoTemplate.upsert(query, update, ReviewStats.class).then();
+    }
+
+    /**
+     * Aggregates the reviews of one movie again and sets its stats, retried while increments keep landing in
+     * between. A movie that stays that busy is left to its increments until the next rebuild.
+     */
+    private Mono<Void> recompute(Long movieInfoId) {
+        return serverTime()
+                .flatMap(since -> aggregateStats(movieInfoId)
+                        .next()
+                        .defaultIfEmpty(ReviewStats.empty(movieInfoId))
+                        .flatMap(stats -> setIfUnchangedSince(stats, since)))
+                .retryWhen(Retry.max(MAX_RECOMPUTES).filter(DuplicateKeyException.class::isInstance))
+                .onErrorResume(Exceptions::isRetryExhausted, e -> Mono.empty());
+    }
+
+    private static Long movieInfoId(Document row) {
+        return ((Number) row.get("_id", Document.class).get("movieInfoId")).longValue();
+    }
+
+    private static ReviewStats toStats(List<Document> rows) {
+        var stats = ReviewStats.empty(movieInfoId(rows.get(0)));
+        for (var row : rows) {
+            var count = ((Number) row.get("count")).longValue();
+            var bucket = (Number) row.get("_id", Document.class).get("bucket");
+            stats.setCount(stats.getCount() + count);
+            if (bucket != null) {
+                // a null bucket holds the reviews without a rating
+                stats.setRated(stats.getRated() + count);
+                stats.setSum(stats.getSum() + ((Number) row.get("sum")).doubleValue());
+                stats.getHistogram().merge(ReviewStats.bucket(bucket.doubleValue()), count, Long::sum);
+            }
+        }
+        return stats;
+    }
+
+    private static class Delta {
+        private final Map<String, Long> counts = new LinkedHashMap<>();
+        private double sum;
+
+        private void add(Review review, int sign) {
+            counts.merge("count", (long) sign, Long::sum);
+            if (review.getRating() != null) {
+                counts.merge("rated", (long) sign, Long::sum);
+                counts.merge("histogram." + ReviewStats.bucket(review.getRating()), (long) sign, Long::sum);
+                sum += sign * review.getRating();
+            }
+        }
+
+        private boolean isEmpty() {
+            counts.values().removeIf(count -> count == 0);
+            return counts.isEmpty() && sum == 0;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.Review;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Gathers concurrent single review inserts into one insertMany.
+ * <p>
+ * Reviews inserted within {@code window} of the first pending one are written together once the window
+ * closes or {@code maxBatchSize} reviews are pending. Ids are assigned up front, so each caller gets
+ * its own review back, or its own error when that review could not be written. The insert runs on its
+ * own, so a caller that cancels does not cancel the write for the others.
+ */
+@Component
+public class ReviewWriteCoalescer {
+
+    private final ReviewReactorRepository reviewReactorRepository;
+    private final boolean enabled;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final Scheduler scheduler;
+
+    private final Counter batches;
+    private final DistributionSummary batchSizes;
+
+    private Batch current;
+
+    public ReviewWriteCoalescer(ReviewReactorRepository reviewReactorRepository,
+                                @Value("${reviews.writeCoalescing.enabled:true}") boolean enabled,
+                                @Value("${reviews.writeCoalescing.window:2ms}") Duration window,
+                                @Value("${reviews.writeCoalescing.maxBatchSize:64}") int maxBatchSize,
+                                MeterRegistry meterRegistry) {
+        this.reviewReactorRepository = reviewReactorRepository;
+        this.enabled = enabled;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Schedulers.parallel();
+        this.batches = meterRegistry.counter("reviews.write.batches");
+        this.batchSizes = DistributionSummary.builder("reviews.write.batch.size")
+                .register(meterRegistry);
+    }
+
+    public Mono<Review> insert(Review review) {
+        if (!enabled || review.getReviewId() != null) {
+            // an id from the client may already exist, which save overwrites and an insert would reject
+            return reviewReactorRepository.save(review);
+        }
+        return Mono.defer(() -> {
+            review.setReviewId(new ObjectId().toHexString());
+            var pending = new Pending(review);
+            Batch full = null;
+            synchronized (this) {
+                if (current == null) {
+                    var batch = new Batch();
+                    current = batch;
+                    scheduler.schedule(() -> dispatch(batch), window.toNanos(), TimeUnit.NANOSECONDS);
+                }
+                current.pending.add(pending);
+                if (current.pending.size() >= maxBatchSize) {
+                    full = current;
+                    current = null;
+                }
+            }
+            if (full != null) {
+                dispatch(full);
+            }
+            return pending.result.asMono();
+        });
+    }
+
+    private void dispatch(Batch batch) {
+        synchronized (this) {
+            if (current == batch) {
+                current = null;
+            }
+            if (batch.dispatched) {
+                return;
+            }
+            batch.dispatched = true;
+        }
+
+        var pending = batch.pending;
+        batches.increment();
+        batchSizes.record(pending.size());
+
+        Mono.defer(() -> reviewReactorRepository.insertUnordered(
+                        pending.stream().map(p -> p.review).collect(Collectors.toList())))
+                .subscribe(
+                        failures -> {
+                            for (int i = 0; i < pending.size(); i++) {
+                                var failure = failures.get(i);
+                                if (failure == null) {
+                                    pending.get(i).result.tryEmitValue(pending.get(i).review);
+                                } else {
+                                    pending.get(i).result.tryEmitError(new DataIntegrityViolationException(failure));
+                                }
+                            }
+                        },
+                        ex -> pending.forEach(p -> p.result.tryEmitError(ex)));
+    }
+
+    private static class Pending {
+        private final Review review;
+        private final Sinks.One<Review> result = Sinks.one();
+
+        private Pending(Review review) {
+            this.review = review;
+        }
+    }
+
+    private static class Batch {
+        // only modified while holding the coalescer's lock and before the batch is dispatched
+        private final List<Pending> pending = new ArrayList<>();
+        private boolean dispatched;
+    }
+
+}
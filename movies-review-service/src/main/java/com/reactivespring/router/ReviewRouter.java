@@ -22,6 +22,10 @@ public class ReviewRouter {
                         .PUT("{id}", reviewHandler::updateReview)
                         .DELETE("{id}", reviewHandler::deleteReview)
                         .GET("/stream", reviewHandler::getReviewsStream)
+                        .POST("/bulk", reviewHandler::bulkAddReviews)
+                        .GET("/stats", reviewHandler::getReviewStats)
+                        .POST("/stats/rebuild", reviewHandler::rebuildReviewStats)
+                        .GET("/trending", reviewHandler::getTrendingMovies)
                     )
                 .GET("/v1/helloworld", request -> ServerResponse.ok().bodyValue("Hello World"))
                 .build() ;
@@ -0,0 +1,34 @@
+package com.reactivespring.stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.Review;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+
+/**
+ * Encodes a review to its NDJSON stream line once, so that the same bytes can be kept for replay and
+ * handed to every stream subscriber.
+ */
+@Component
+public class ReviewEventEncoder {
+
+    private final ObjectMapper objectMapper;
+
+    public ReviewEventEncoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public byte[] encode(Review review) {
+        try {
+            var json = objectMapper.writeValueAsBytes(review);
+            var line = Arrays.copyOf(json, json.length + 1);
+            line[json.length] = '\n';
+            return line;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to encode review " + review.getReviewId(), e);
+        }
+    }
+
+}
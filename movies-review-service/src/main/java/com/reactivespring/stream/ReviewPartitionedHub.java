@@ -0,0 +1,83 @@
+package com.reactivespring.stream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Live reviews routed by movieInfoId, for {@code /v1/reviews/stream?movieInfoId=}.
+ * <p>
+ * Each movieInfoId gets its own sink. The sink is created by the first subscriber to that movie and removed
+ * when the last one leaves, so a posted review only reaches the subscribers of its movie, and movies with
+ * no subscribers cost a single map lookup. Reviews arrive already encoded by {@link ReviewEventEncoder}.
+ */
+@Component
+public class ReviewPartitionedHub {
+
+    private final Map<Long, Partition> partitions = new ConcurrentHashMap<>();
+    private final int liveBufferSize;
+
+    private final Counter routedEvents;
+    private final Counter droppedEvents;
+
+    public ReviewPartitionedHub(@Value("${reviewsStream.liveBufferSize:256}") int liveBufferSize,
+                                MeterRegistry meterRegistry) {
+        this.liveBufferSize = liveBufferSize;
+        Gauge.builder("reviews.stream.partitions", partitions, Map::size)
+                .register(meterRegistry);
+        this.routedEvents = meterRegistry.counter("reviews.stream.partition.events", "result", "routed");
+        this.droppedEvents = meterRegistry.counter("reviews.stream.partition.events", "result", "dropped");
+    }
+
+    public void publish(Long movieInfoId, byte[] event) {
+        var partition = partitions.get(movieInfoId);
+        if (partition == null) {
+            return;
+        }
+        // concurrent posts for the same movie must not emit into its sink at the same time
+        synchronized (partition) {
+            partition.sink.tryEmitNext(event);
+        }
+        routedEvents.increment();
+    }
+
+    public Flux<DataBuffer> subscribe(Long movieInfoId, DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+            var partition = partitions.compute(movieInfoId, (id, existing) -> {
+                var joined = existing == null ? new Partition() : existing;
+                joined.subscribers++;
+                return joined;
+            });
+            return partition.sink.asFlux()
+                    .onBackpressureBuffer(liveBufferSize, dropped -> droppedEvents.increment(),
+                            BufferOverflowStrategy.DROP_OLDEST)
+                    .map(bufferFactory::wrap)
+                    .doFinally(signalType -> leave(movieInfoId));
+        });
+    }
+
+    public int partitionCount() {
+        return partitions.size();
+    }
+
+    private void leave(Long movieInfoId) {
+        partitions.computeIfPresent(movieInfoId, (id, partition) -> --partition.subscribers == 0 ? null : partition);
+    }
+
+    private static final class Partition {
+        private final Sinks.Many<byte[]> sink = Sinks.many().multicast().directBestEffort();
+        // only changed inside compute on the partitions map
+        private int subscribers;
+    }
+
+}
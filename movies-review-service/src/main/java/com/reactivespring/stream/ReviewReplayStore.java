@@ -0,0 +1,215 @@
+package com.reactivespring.stream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounded history of posted reviews for {@code /v1/reviews/stream}.
+ * <p>
+ * Reviews are kept in a fixed-capacity ring buffer. Entries are dropped once the ring is full or once they
+ * are older than {@code maxAge}, so memory use does not grow with write volume. Reviews are kept as their
+ * encoded NDJSON lines (see {@link ReviewEventEncoder}), which are sent to subscribers as they are. With
+ * {@code offHeap} enabled, the lines are stored in fixed-size slots of one direct buffer, which keeps the
+ * history out of the garbage collected heap. Lines that do not fit in a slot stay on the heap.
+ * <p>
+ * A new subscriber is attached to the live feed before its history is read. Live reviews that are also
+ * part of the history are skipped by sequence number, so nothing is lost or repeated in between.
+ */
+@Component
+@Slf4j
+public class ReviewReplayStore {
+
+    private final int capacity;
+    private final Duration maxAge;
+    private final int liveBufferSize;
+
+    // ring buffer, guarded by this; head is the oldest entry
+    private final long[] seqs;
+    private final long[] timestamps;
+    private final byte[][] onHeap;
+    private final ByteBuffer offHeap;
+    private final int slotSize;
+    private int head;
+    private int size;
+    private long lastSeq;
+    private long offHeapBytes;
+
+    // emitted to while holding the lock, so emissions are serialized and in sequence order
+    private final Sinks.Many<Entry> liveSink = Sinks.many().multicast().directBestEffort();
+
+    private final Timer replayTimer;
+    private final DistributionSummary replayedEvents;
+    private final Counter droppedLiveEvents;
+
+    public ReviewReplayStore(@Value("${reviewsStream.replay.maxSize:1000}") int capacity,
+                             @Value("${reviewsStream.replay.maxAge:10m}") Duration maxAge,
+                             @Value("${reviewsStream.replay.offHeap:false}") boolean offHeap,
+                             @Value("${reviewsStream.replay.slotSize:512}") int slotSize,
+                             @Value("${reviewsStream.liveBufferSize:256}") int liveBufferSize,
+                             MeterRegistry meterRegistry) {
+        this.capacity = capacity;
+        this.maxAge = maxAge;
+        this.liveBufferSize = liveBufferSize;
+        this.seqs = new long[capacity];
+        this.timestamps = new long[capacity];
+        this.onHeap = new byte[capacity][];
+        this.slotSize = slotSize;
+        this.offHeap = offHeap ? ByteBuffer.allocateDirect(Math.multiplyExact(capacity, slotSize)) : null;
+
+        Gauge.builder("reviews.stream.replay.entries", this, ReviewReplayStore::size)
+                .register(meterRegistry);
+        Gauge.builder("reviews.stream.replay.offheap.bytes", this, ReviewReplayStore::offHeapBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.replayTimer = meterRegistry.timer("reviews.stream.replay.snapshot");
+        this.replayedEvents = DistributionSummary.builder("reviews.stream.replay.events")
+                .register(meterRegistry);
+        this.droppedLiveEvents = meterRegistry.counter("reviews.stream.live.dropped");
+    }
+
+    /**
+     * @param event a review encoded by {@link ReviewEventEncoder}, which must not be modified afterwards
+     */
+    public void append(byte[] event) {
+        synchronized (this) {
+            var now = System.currentTimeMillis();
+            evictExpired(now);
+            if (size == capacity) {
+                evictOldest();
+            }
+            var slot = (head + size) % capacity;
+            seqs[slot] = ++lastSeq;
+            timestamps[slot] = now;
+            store(slot, event);
+            size++;
+            liveSink.tryEmitNext(new Entry(lastSeq, event));
+        }
+    }
+
+    /**
+     * Replays up to {@code maxEvents} of the most recent reviews that are not older than {@code since}
+     * ({@code null} for the whole retained window) and then follows new reviews as they are posted.
+     */
+    public Flux<DataBuffer> subscribe(int maxEvents, Duration since, DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+            // a slow subscriber drops live reviews once its own buffer is full
+            Sinks.Many<Entry> pending = Sinks.many().unicast()
+                    .onBackpressureBuffer(Queues.<Entry>get(liveBufferSize).get());
+            Disposable live = liveSink.asFlux()
+                    .subscribe(entry -> {
+                        if (pending.tryEmitNext(entry).isFailure()) {
+                            droppedLiveEvents.increment();
+                        }
+                    });
+
+            var sample = Timer.start();
+            var history = new ArrayList<Entry>();
+            var historyLastSeq = snapshot(maxEvents, since, history);
+            sample.stop(replayTimer);
+            replayedEvents.record(history.size());
+
+            return Flux.fromIterable(history)
+                    .concatWith(pending.asFlux()
+                            .filter(entry -> entry.seq > historyLastSeq))
+                    .map(entry -> bufferFactory.wrap(entry.event))
+                    .doFinally(signalType -> live.dispose());
+        });
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long offHeapBytes() {
+        return offHeapBytes;
+    }
+
+    /**
+     * Copies the requested part of the history into {@code into}, oldest first, and returns the sequence
+     * number of the most recent review at that point.
+     */
+    private synchronized long snapshot(int maxEvents, Duration since, List<Entry> into) {
+        var now = System.currentTimeMillis();
+        evictExpired(now);
+        var cutoff = since == null ? Long.MIN_VALUE : now - since.toMillis();
+        for (int i = size - 1; i >= 0 && into.size() < maxEvents; i--) {
+            var slot = (head + i) % capacity;
+            if (timestamps[slot] < cutoff) {
+                break;
+            }
+            into.add(copy(slot));
+        }
+        Collections.reverse(into);
+        return lastSeq;
+    }
+
+    private void evictExpired(long now) {
+        var oldestAllowed = now - maxAge.toMillis();
+        while (size > 0 && timestamps[head] < oldestAllowed) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        if (onHeap[head] == null) {
+            offHeapBytes -= offHeap.getInt(head * slotSize);
+        }
+        onHeap[head] = null;
+        head = (head + 1) % capacity;
+        size--;
+    }
+
+    private void store(int slot, byte[] encoded) {
+        if (offHeap == null || encoded.length > slotSize - Integer.BYTES) {
+            onHeap[slot] = encoded;
+            return;
+        }
+        var offset = slot * slotSize;
+        offHeap.putInt(offset, encoded.length);
+        var target = offHeap.duplicate();
+        target.position(offset + Integer.BYTES);
+        target.put(encoded);
+        offHeapBytes += encoded.length;
+    }
+
+    private Entry copy(int slot) {
+        if (onHeap[slot] != null) {
+            return new Entry(seqs[slot], onHeap[slot]);
+        }
+        var offset = slot * slotSize;
+        var encoded = new byte[offHeap.getInt(offset)];
+        var source = offHeap.duplicate();
+        source.position(offset + Integer.BYTES);
+        source.get(encoded);
+        return new Entry(seqs[slot], encoded);
+    }
+
+    private static final class Entry {
+        private final long seq;
+        private final byte[] event;
+
+        private Entry(long seq, byte[] event) {
+            this.seq = seq;
+            this.event = event;
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.domain.TrendingMovie;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Most reviewed movies over sliding windows of the live reviews, for {@code /v1/reviews/trending}.
+ * <p>
+ * Each window is a ring of time buckets, each holding a Count-Min Sketch of the reviews per movie. A running
+ * total of the live buckets answers the estimate for a movie in O(depth); when the ring moves on, the bucket
+ * falling out is subtracted and reused. Next to the sketch, a bounded set of heavy-hitter candidates tracks
+ * the movies with the highest estimates, and the top K of those are picked with a heap when asked. So memory
+ * per window is fixed by buckets, width, depth and candidates however many movies get reviewed.
+ * <p>
+ * Estimates may overcount by hash collisions but never undercount. A window covers its last full buckets
+ * plus the current partial one, so it can be up to one bucket shorter than its length.
+ */
+@Component
+public class ReviewTrendingEngine {
+
+    private final Map<Duration, SlidingWindow> windows = new LinkedHashMap<>();
+    private final Clock clock;
+
+    private final Counter recordedReviews;
+
+    @Autowired
+    public ReviewTrendingEngine(@Value("${reviews.trending.windows:5m,1h,24h}") String windows,
+                                @Value("${reviews.trending.buckets:60}") int buckets,
+                                @Value("${reviews.trending.sketch.width:1024}") int width,
+                                @Value("${reviews.trending.sketch.depth:4}") int depth,
+                                @Value("${reviews.trending.candidates:100}") int candidates,
+                                MeterRegistry meterRegistry) {
+        this(parseWindows(windows), buckets, width, depth, candidates, Clock.systemUTC(), meterRegistry);
+    }
+
+    ReviewTrendingEngine(List<Duration> windows, int buckets, int width, int depth, int candidates, Clock clock,
+                         MeterRegistry meterRegistry) {
+        for (var length : windows) {
+            this.windows.put(length, new SlidingWindow(length, buckets, width, depth, candidates));
+        }
+        this.clock = clock;
+        this.recordedReviews = meterRegistry.counter("reviews.trending.recorded");
+    }
+
+    private static List<Duration> parseWindows(String windows) {
+        var lengths = new ArrayList<Duration>();
+        for (var window : windows.split(",")) {
+            lengths.add(DurationStyle.detectAndParse(window.trim()));
+        }
+        return lengths;
+    }
+
+    public Set<Duration> windows() {
+        return windows.keySet();
+    }
+
+    public void record(Long movieInfoId) {
+        var now = clock.millis();
+        for (var window : windows.values()) {
+            window.record(movieInfoId, now);
+        }
+        recordedReviews.increment();
+    }
+
+    /**
+     * The up to {@code limit} movies with the most reviews within {@code window}, most reviewed first,
+     * {@code null} when there is no such window.
+     */
+    public List<TrendingMovie> trending(Duration window, int limit) {
+        var slidingWindow = windows.get(window);
+        return slidingWindow == null ? null : slidingWindow.top(limit, clock.millis());
+    }
+
+    private static final class SlidingWindow {
+
+        // one hash function per sketch row
+        private static final long[] SEEDS = {
+                0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+                0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x94D049BB133111EBL, 0xBF58476D1CE4E5B9L};
+
+        private final long bucketMillis;
+        private final int width;
+        private final int depth;
+        private final int candidateCapacity;
+
+        // guarded by this
+        private final int[][] buckets;
+        private final int[] totals;
+        private long currentBucket = Long.MIN_VALUE;
+        private final Map<Long, Long> candidates = new HashMap<>();
+
+        private SlidingWindow(Duration length, int buckets, int width, int depth, int candidateCapacity) {
+            if (depth > SEEDS.length) {
+                throw new IllegalArgumentException("sketch depth is at most " + SEEDS.length);
+            }
+            this.bucketMillis = Math.max(1, length.toMillis() / buckets);
+            this.width = width;
+            this.depth = depth;
+            this.candidateCapacity = candidateCapacity;
+            this.buckets = new int[buckets][width * depth];
+            this.totals = new int[width * depth];
+        }
+
+        private synchronized void record(long movieInfoId, long now) {
+            advance(now);
+            var bucket = buckets[(int) Math.floorMod(currentBucket, (long) buckets.length)];
+            var estimate = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                var cell = cell(movieInfoId, row);
+                bucket[cell]++;
+                estimate = Math.min(estimate, ++totals[cell]);
+            }
+            offer(movieInfoId, estimate);
+        }
+
+        private synchronized List<TrendingMovie> top(int limit, long now) {
+            advance(now);
+            // candidates' counts drop as buckets expire, so they are estimated again before ranking
+            var heap = new PriorityQueue<TrendingMovie>(Comparator.comparingLong(TrendingMovie::getReviews));
+            var iterator = candidates.entrySet().iterator();
+            while (iterator.hasNext()) {
+                var candidate = iterator.next();
+                var estimate = estimate(candidate.getKey());
+                if (estimate == 0) {
+                    iterator.remove();
+                    continue;
+                }
+                candidate.setValue(estimate);
+                heap.offer(new TrendingMovie(candidate.getKey(), estimate));
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+            var top = new ArrayList<TrendingMovie>(heap.size());
+            while (!heap.isEmpty()) {
+                top.add(heap.poll());
+            }
+            top.sort(Comparator.comparingLong(TrendingMovie::getReviews).reversed()
+                    .thenComparing(TrendingMovie::getMovieInfoId));
+            return top;
+        }
+
+        private void offer(long movieInfoId, long estimate) {
+            if (candidates.containsKey(movieInfoId) || candidates.size() < candidateCapacity) {
+                candidates.put(movieInfoId, estimate);
+                return;
+            }
+            // the stored estimates date from each candidate's last review and have since dropped with the expired
+            // buckets, so they are estimated again before the weakest is picked; one that fell to zero makes room
+            Map.Entry<Long, Long> weakest = null;
+            var iterator = candidates.entrySet().iterator();
+            while (iterator.hasNext()) {
+                var candidate = iterator.next();
+                var current = estimate(candidate.getKey());
+                if (current == 0) {
+                    iterator.remove();
+                    candidates.put(movieInfoId, estimate);
+                    return;
+                }
+                candidate.setValue(current);
+                if (weakest == null || current < weakest.getValue()) {
+                    weakest = candidate;
+                }
+            }
+            if (estimate > weakest.getValue()) {
+                candidates.remove(weakest.getKey());
+                candidates.put(movieInfoId, estimate);
+            }
+        }
+
+        private long estimate(long movieInfoId) {
+            var estimate = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                estimate = Math.min(estimate, totals[cell(movieInfoId, row)]);
+            }
+            return estimate;
+        }
+
+        /**
+         * Moves the ring to the bucket of {@code now}, dropping the buckets that fell out of the window.
+         */
+        private void advance(long now) {
+            var bucket = now / bucketMillis;
+            if (bucket <= currentBucket) {
+                return;
+            }
+            if (currentBucket == Long.MIN_VALUE || bucket - currentBucket >= buckets.length) {
+                for (var expired : buckets) {
+                    Arrays.fill(expired, 0);
+                }
+                Arrays.fill(totals, 0);
+            } else {
+                for (var next = currentBucket + 1; next <= bucket; next++) {
+                    var expired = buckets[(int) Math.floorMod(next, (long) buckets.length)];
+                    for (int cell = 0; cell < expired.length; cell++) {
+                        totals[cell] -= expired[cell];
+                    }
+                    Arrays.fill(expired, 0);
+                }
+            }
+            currentBucket = bucket;
+        }
+
+        private int cell(long movieInfoId, int row) {
+            var hash = (movieInfoId ^ SEEDS[row]) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            return row * width + (int) Math.floorMod(hash, (long) width);
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+@DataMongoTest
+@ActiveProfiles("test")
+public class ReviewStatsRepositoryIntgTest {
+
+    @Autowired
+    ReviewReactorRepository reviewReactorRepository;
+
+    @Autowired
+    ReviewStatsRepository reviewStatsRepository;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @AfterEach
+    void tearDown() {
+        reviewReactorRepository.deleteAll().block();
+        reviewStatsRepository.deleteAll().block();
+    }
+
+    @Test
+    void rebuild_insertsDuringTheRebuild_areKept() {
+        reviewReactorRepository.saveAll(List.of(
+                new Review(null, 1L, "Awesome Movie", 9.0),
+                new Review(null, 1L, "Awesome Movie1", 9.0))).blockLast();
+        // drifted, movie 1 counts five reviews and movie 2 has stats but no reviews
+        reviewStatsRepository.saveAll(List.of(
+                new ReviewStats(1L, 5, 5, 45.0, Map.of("9", 5L)),
+                new ReviewStats(2L, 1, 1, 8.0, Map.of("8", 1L)))).blockLast();
+
+        // added the way the handler does, after the rebuild read the reviews and just before it writes movie 1
+        var concurrentInserts = Flux.just(new Review(null, 1L, "Decent Movie", 7.0), new Review(null, 3L, "Excellent Movie", 8.0))
+                .concatMap(review -> reviewReactorRepository.save(review)
+                        .flatMap(saved -> reviewStatsRepository.applyChange(null, saved)))
+                .then();
+        var template = spy(mongoTemplate);
+        var inserted = new AtomicBoolean();
+        doAnswer(invocation -> inserted.compareAndSet(false, true)
+                // the template only runs the update once subscribed, so after the inserts
+                ? concurrentInserts.then((Mono<?>) invocation.callRealMethod())
+                : invocation.callRealMethod())
+                .when(template).upsert(any(Query.class), any(UpdateDefinition.class), eq(ReviewStats.class));
+
+        StepVerifier.create(new ReviewStatsRepositoryCustomImpl(template).rebuild())
+                .expectNext(1L)
+                .verifyComplete();
+
+        StepVerifier.create(reviewStatsRepository.findById(1L))
+                .assertNext(stats -> {
+                    assertEquals(3, stats.getCount());
+                    assertEquals(25.0, stats.getSum());
+                    assertEquals(Map.of("9", 2L, "7", 1L), stats.getHistogram());
+                })
+                .verifyComplete();
+        StepVerifier.create(reviewStatsRepository.findById(2L))
+                .verifyComplete();
+        // created by the insert while the rebuild ran, so not one the rebuild left behind
+        StepVerifier.create(reviewStatsRepository.findById(3L))
+                .assertNext(stats -> assertEquals(1, stats.getCount()))
+                .verifyComplete();
+    }
+
+}
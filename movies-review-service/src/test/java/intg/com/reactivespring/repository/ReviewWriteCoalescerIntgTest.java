@@ -0,0 +1,97 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.Review;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataMongoTest(properties = {"reviews.writeCoalescing.window=2ms", "reviews.writeCoalescing.maxBatchSize=64"})
+@ActiveProfiles("test")
+@Import({ReviewWriteCoalescer.class, ReviewWriteCoalescerIntgTest.MetricsConfig.class})
+public class ReviewWriteCoalescerIntgTest {
+
+    @Autowired
+    ReviewWriteCoalescer reviewWriteCoalescer;
+
+    @Autowired
+    ReviewReactorRepository reviewReactorRepository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @TestConfiguration
+    static class MetricsConfig {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        reviewReactorRepository.deleteAll().block();
+    }
+
+    @Test
+    void insert_concurrentReviews_areWrittenTogether() {
+        var inserts = Flux.range(0, 200)
+                .flatMap(i -> reviewWriteCoalescer.insert(new Review(null, 1L, "Review " + i, 8.0)), 200);
+
+        StepVerifier.create(inserts)
+                .thenConsumeWhile(review -> {
+                    assertNotNull(review.getReviewId());
+                    return true;
+                })
+                .verifyComplete();
+
+        StepVerifier.create(reviewReactorRepository.findReviewByMovieInfoId(1L))
+                .expectNextCount(200)
+                .verifyComplete();
+        assertTrue(meterRegistry.counter("reviews.write.batches").count() < 200);
+    }
+
+    @Test
+    void insert_reviewWithId_isSaved() {
+        StepVerifier.create(reviewWriteCoalescer.insert(new Review("abc", 1L, "Review", 8.0))
+                        .then(reviewWriteCoalescer.insert(new Review("abc", 1L, "Review Updated", 9.0))))
+                .assertNext(review -> assertEquals("Review Updated", review.getComment()))
+                .verifyComplete();
+    }
+
+    @Test
+    void insert_burst_isWrittenInFullBatches() {
+        var reviews = 5_000;
+        var batches = meterRegistry.counter("reviews.write.batches");
+        var batchSizes = meterRegistry.summary("reviews.write.batch.size");
+        var batchesBefore = batches.count();
+        var reviewsBefore = batchSizes.totalAmount();
+
+        Flux.range(0, reviews)
+                .flatMap(i -> reviewWriteCoalescer.insert(new Review(null, 2L, "Review " + i, 7.0)), 256)
+                .blockLast(Duration.ofMinutes(2));
+
+        var written = batches.count() - batchesBefore;
+        assertEquals(reviews, batchSizes.totalAmount() - reviewsBefore);
+        assertTrue(batchSizes.max() <= 64);
+        // with 256 inserts in flight, the 64 review batches fill up long before the window ends
+        assertTrue(written >= Math.ceil(reviews / 64.0));
+        assertTrue(written < reviews / 10.0, "written in " + written + " batches");
+        assertEquals(reviews, reviewReactorRepository.findReviewByMovieInfoId(2L).count().block());
+    }
+
+}
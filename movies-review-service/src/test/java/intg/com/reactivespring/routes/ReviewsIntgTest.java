@@ -1,7 +1,11 @@
 package com.reactivespring.routes;
 
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewBulkResult;
+import com.reactivespring.repository.ReviewIndexInitializer;
 import com.reactivespring.repository.ReviewReactorRepository;
+import com.reactivespring.repository.ReviewStatsRepository;
+import org.bson.Document;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -9,12 +13,16 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
@@ -27,6 +35,15 @@ public class ReviewsIntgTest {
     @Autowired
     ReviewReactorRepository reviewReactorRepository;
 
+    @Autowired
+    ReviewStatsRepository reviewStatsRepository;
+
+    @Autowired
+    ReviewIndexInitializer reviewIndexInitializer;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
     static String MOVIE_REVIEW_URL = "/v1/reviews";
 
     @BeforeEach
@@ -41,6 +58,7 @@ public class ReviewsIntgTest {
     @AfterEach
     void tearDown() {
         reviewReactorRepository.deleteAll().block();
+        reviewStatsRepository.deleteAll().block();
     }
 
     @Test
@@ -107,6 +125,143 @@ public class ReviewsIntgTest {
 
     }
 
+    @Test
+    void bulkAddReviews() {
+        var body = String.join("\n",
+                "{\"movieInfoId\":3,\"comment\":\"Great\",\"rating\":8.0}",
+                "{\"movieInfoId\":3,",
+                "{\"comment\":\"No movie\",\"rating\":-1.0}",
+                "",
+                "{\"reviewId\":\"1\",\"movieInfoId\":1,\"comment\":\"Duplicate\",\"rating\":7.0}",
+                "{\"movieInfoId\":3,\"comment\":\"Good\",\"rating\":7.5}");
+
+        var results = webTestClient.post()
+                .uri(MOVIE_REVIEW_URL + "/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(ReviewBulkResult.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        Assertions.assertEquals(1, results.size());
+        var result = results.get(0);
+        Assertions.assertEquals(2, result.getInserted());
+        // malformed, failing validation, duplicate id
+        Assertions.assertEquals(List.of(2L, 3L, 5L), result.getRejected().stream()
+                .map(ReviewBulkResult.Rejected::getLine)
+                .collect(Collectors.toList()));
+        Assertions.assertEquals("rating.movieInfoId: must not be null,rating.negative : please pass a non-negative value",
+                result.getRejected().get(1).getError());
+
+        StepVerifier.create(reviewReactorRepository.findReviewByMovieInfoId(3L))
+                .expectNextCount(2)
+                .verifyComplete();
+    }
+
+    @Test
+    void reviewStats() {
+        // the reviews of setUp were saved directly, so their stats only exist after a rebuild
+        webTestClient.post()
+                .uri(MOVIE_REVIEW_URL + "/stats/rebuild")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.movies").isEqualTo(2);
+        assertStats(2, 18.0, "9", 2);
+
+        webTestClient.post()
+                .uri(MOVIE_REVIEW_URL)
+                .bodyValue(new Review(null, 1L, "Good Movie", 6.0))
+                .exchange()
+                .expectStatus()
+                .isCreated();
+        assertStats(3, 24.0, "6", 1);
+
+        webTestClient.put()
+                .uri(MOVIE_REVIEW_URL + "/{id}", "1")
+                .bodyValue(new Review("1", 1L, "Decent Movie", 7.0))
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful();
+        assertStats(3, 22.0, "9", 1);
+
+        webTestClient.delete()
+                .uri(MOVIE_REVIEW_URL + "/{id}", "1")
+                .exchange()
+                .expectStatus()
+                .isNoContent();
+        assertStats(2, 15.0, "7", 0);
+    }
+
+    @Test
+    void reviewStats_clientIdReplacesTheExistingReview() {
+        rebuildStats(2);
+        assertStats(2, 18.0, "9", 2);
+
+        // review "1" exists already, its 9.0 rating must leave the stats as the 7.0 comes in
+        webTestClient.post()
+                .uri(MOVIE_REVIEW_URL)
+                .bodyValue(new Review("1", 1L, "Decent Movie", 7.0))
+                .exchange()
+                .expectStatus()
+                .isCreated();
+        assertStats(2, 16.0, "9", 1);
+    }
+
+    @Test
+    void rebuildStats_removesMoviesWithoutReviews() {
+        rebuildStats(2);
+
+        // bypasses the stats, as if they had drifted
+        reviewReactorRepository.deleteAll(reviewReactorRepository.findReviewByMovieInfoId(2L)).block();
+        rebuildStats(1);
+
+        webTestClient.get()
+                .uri(MOVIE_REVIEW_URL + "/stats?movieInfoId=2")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(0);
+        assertStats(2, 18.0, "9", 2);
+    }
+
+    private void rebuildStats(long movies) {
+        webTestClient.post()
+                .uri(MOVIE_REVIEW_URL + "/stats/rebuild")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.movies").isEqualTo(movies);
+    }
+
+    private void assertStats(long count, double sum, String bucket, long bucketCount) {
+        webTestClient.get()
+                .uri(MOVIE_REVIEW_URL + "/stats?movieInfoId=1")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(count)
+                .jsonPath("$.sum").isEqualTo(sum)
+                .jsonPath("$.histogram." + bucket).isEqualTo(bucketCount);
+    }
+
+    @Test
+    void deleteReview_notFound() {
+        webTestClient.delete()
+                .uri(MOVIE_REVIEW_URL + "/{id}", "def")
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+    }
+
     @Test
     void getAllReviewsByMovieId() {
         var url = UriComponentsBuilder.fromUriString(MOVIE_REVIEW_URL)
@@ -123,4 +278,52 @@ public class ReviewsIntgTest {
                 .hasSize(2);
     }
 
+    @Test
+    void getAllReviewsByMovieIds() {
+        var url = UriComponentsBuilder.fromUriString(MOVIE_REVIEW_URL)
+                .queryParam("movieInfoId", "1", "2", "3")
+                .buildAndExpand()
+                .toUri();
+
+        webTestClient.get()
+                .uri(url)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(Review.class)
+                .hasSize(3);
+    }
+
+    @Test
+    void getAllReviewsByMovieIds_nonNumericIdsAreSkipped() {
+        var url = UriComponentsBuilder.fromUriString(MOVIE_REVIEW_URL)
+                .queryParam("movieInfoId", "1", "abc", "2")
+                .buildAndExpand()
+                .toUri();
+
+        webTestClient.get()
+                .uri(url)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(Review.class)
+                .hasSize(3);
+    }
+
+    @Test
+    void getReviewsByMovieId_usesIndex() {
+        var indexes = reviewIndexInitializer.ensureIndexes().block();
+        Assertions.assertEquals("movieInfoId_rating",
+                ReviewIndexInitializer.coveringIndex(indexes, List.of("movieInfoId")));
+
+        // the same filter findReviewByMovieInfoId sends
+        var explain = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Review.class))
+                .flatMap(collection -> Mono.from(collection.find(new Document("movieInfoId", 1L)).explain()))
+                .block();
+
+        var winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+        Assertions.assertTrue(winningPlan.contains("IXSCAN"), winningPlan);
+        Assertions.assertFalse(winningPlan.contains("COLLSCAN"), winningPlan);
+    }
+
 }
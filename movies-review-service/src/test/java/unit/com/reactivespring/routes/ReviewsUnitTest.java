@@ -1,15 +1,27 @@
 package com.reactivespring.routes;
 
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewStats;
 import com.reactivespring.execptionhandler.GlobalErrorHandler;
 import com.reactivespring.handler.ReviewHandler;
 import com.reactivespring.repository.ReviewReactorRepository;
+import com.reactivespring.repository.ReviewStatsRepository;
+import com.reactivespring.repository.ReviewWriteCoalescer;
 import com.reactivespring.router.ReviewRouter;
+import com.reactivespring.stream.ReviewEventEncoder;
+import com.reactivespring.stream.ReviewPartitionedHub;
+import com.reactivespring.stream.ReviewReplayStore;
+import com.reactivespring.stream.ReviewTrendingEngine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -18,29 +30,50 @@ import reactor.core.publisher.Mono;
 
 import java.lang.reflect.Array;
 import java.util.List;
+import java.util.Map;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
 @WebFluxTest
-@ContextConfiguration(classes = {ReviewRouter.class, ReviewHandler.class, GlobalErrorHandler.class})
+@ContextConfiguration(classes = {ReviewRouter.class, ReviewHandler.class, ReviewReplayStore.class, ReviewPartitionedHub.class,
+        ReviewEventEncoder.class, ReviewWriteCoalescer.class, ReviewTrendingEngine.class, GlobalErrorHandler.class, ReviewsUnitTest.MetricsConfig.class})
 @AutoConfigureWebTestClient
 public class ReviewsUnitTest {
 
     @MockBean
     private ReviewReactorRepository reviewReactorRepository;
 
+    @MockBean
+    private ReviewStatsRepository reviewStatsRepository;
+
     @Autowired
     private WebTestClient webTestClient;
 
     static String REVIEWS_URL = "/v1/reviews";
 
+    @TestConfiguration
+    static class MetricsConfig {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        when(reviewStatsRepository.applyChange(any(), any())).thenReturn(Mono.empty());
+    }
+
     @Test
     void AddReview() {
         var review = new Review(null, 1L, "Awesome Movie", 9.0);
 
-        when(reviewReactorRepository.save(isA(Review.class))).thenReturn(Mono.just(new Review("1", 1L, "Awesome Movie", 9.0)));
+        when(reviewReactorRepository.insertUnordered(anyList())).thenReturn(Mono.just(Map.of()));
 
         webTestClient.post().uri(REVIEWS_URL).bodyValue(review).exchange().expectStatus().isCreated().expectBody(Review.class).consumeWith(reviewEntityExchangeResult -> {
             var savedReview = reviewEntityExchangeResult.getResponseBody();
@@ -88,8 +121,8 @@ public class ReviewsUnitTest {
         var review = new Review("abc", 1L, "Awesome Movie", 9.5);
         var reviewUpdated = new Review("abc", 1L, "Awesome Movie Updated", 8.5);
 
-        when(reviewReactorRepository.findById(isA(String.class))).thenReturn(Mono.just(review));
-        when(reviewReactorRepository.save(isA(Review.class))).thenReturn(Mono.just(reviewUpdated));
+        when(reviewReactorRepository.updateCommentAndRating("abc", "Awesome Movie Updated", 8.5))
+                .thenReturn(Mono.just(review));
 
 
         webTestClient.put()
@@ -111,8 +144,7 @@ public class ReviewsUnitTest {
     void deleteReview() {
         var review = new Review("abc", 1L, "Awesome Movie", 9.5);
 
-        when(reviewReactorRepository.findById(isA(String.class))).thenReturn(Mono.just(review));
-        when(reviewReactorRepository.deleteById(isA(String.class))).thenReturn(Mono.empty());
+        when(reviewReactorRepository.deleteReviewById(isA(String.class))).thenReturn(Mono.just(review));
 
         webTestClient.delete()
                 .uri(REVIEWS_URL+"/{id}", "abc")
@@ -130,6 +162,68 @@ public class ReviewsUnitTest {
 
     }
 
+    @Test
+    void updateReview_notFound() {
+        when(reviewReactorRepository.updateCommentAndRating(isA(String.class), any(), any())).thenReturn(Mono.empty());
+
+        webTestClient.put()
+                .uri(REVIEWS_URL+"/{id}", "def")
+                .bodyValue(new Review("def", 1L, "Awesome Movie Updated", 8.5))
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+    }
+
+    @Test
+    void deleteReview_notFound() {
+        when(reviewReactorRepository.deleteReviewById(isA(String.class))).thenReturn(Mono.empty());
+
+        webTestClient.delete()
+                .uri(REVIEWS_URL+"/{id}", "def")
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+    }
+
+    @Test
+    void getReviewStats() {
+        when(reviewStatsRepository.findById(1L))
+                .thenReturn(Mono.just(new ReviewStats(1L, 2, 2, 17.5, Map.of("8", 1L, "9", 1L))));
+
+        webTestClient.get()
+                .uri(REVIEWS_URL + "/stats?movieInfoId=1")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.average").isEqualTo(8.75)
+                .jsonPath("$.histogram.9").isEqualTo(1);
+    }
+
+    @Test
+    void getTrendingMovies() {
+        when(reviewReactorRepository.insertUnordered(anyList())).thenReturn(Mono.just(Map.of()));
+
+        webTestClient.post().uri(REVIEWS_URL).bodyValue(new Review(null, 5L, "Awesome Movie", 9.0))
+                .exchange().expectStatus().isCreated();
+
+        webTestClient.get()
+                .uri(REVIEWS_URL + "/trending?window=5m&limit=3")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$[0].movieInfoId").isEqualTo(5)
+                .jsonPath("$[0].reviews").isEqualTo(1);
+
+        webTestClient.get()
+                .uri(REVIEWS_URL + "/trending?window=10m")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
     @Test
     void getReviewByMovieId(){
         var review = List.of(new Review("abc", 1L, "Awesome Movie", 9.5),
@@ -151,4 +245,26 @@ public class ReviewsUnitTest {
 
     }
 
+    @Test
+    void getReviewsByMovieIds_nonNumericIdsAreSkipped() {
+        var review = new Review("abc", 1L, "Awesome Movie", 9.5);
+
+        when(reviewReactorRepository.findReviewByMovieInfoIdIn(List.of(1L, 2L))).thenReturn(Flux.just(review));
+
+        var url = UriComponentsBuilder.fromUriString(REVIEWS_URL)
+                .queryParam("movieInfoId", "1", "abc", "2")
+                .buildAndExpand()
+                .toUriString();
+
+        webTestClient.get()
+                .uri(url)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(Review.class)
+                .hasSize(1);
+
+        verify(reviewReactorRepository).findReviewByMovieInfoIdIn(List.of(1L, 2L));
+    }
+
 }
@@ -0,0 +1,56 @@
+package com.reactivespring.stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.Review;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ReviewPartitionedHubTest {
+
+    private final ReviewEventEncoder encoder = new ReviewEventEncoder(new ObjectMapper());
+
+    private void publish(ReviewPartitionedHub hub, Review review) {
+        hub.publish(review.getMovieInfoId(), encoder.encode(review));
+    }
+
+    @Test
+    void subscribe_receivesOnlyReviewsOfItsMovie() {
+        var hub = new ReviewPartitionedHub(16, new SimpleMeterRegistry());
+
+        StepVerifier.create(hub.subscribe(1L, DefaultDataBufferFactory.sharedInstance)
+                        .map(line -> line.toString(StandardCharsets.UTF_8)))
+                .then(() -> {
+                    publish(hub, new Review("a", 1L, "Awesome Movie", 9.0));
+                    publish(hub, new Review("b", 2L, "Excellent Movie", 8.0));
+                    publish(hub, new Review("c", 1L, "Awesome Movie", 7.0));
+                })
+                .expectNext("{\"reviewId\":\"a\",\"movieInfoId\":1,\"comment\":\"Awesome Movie\",\"rating\":9.0}\n")
+                .expectNext("{\"reviewId\":\"c\",\"movieInfoId\":1,\"comment\":\"Awesome Movie\",\"rating\":7.0}\n")
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void subscribe_partitionIsEvictedWithItsLastSubscriber() {
+        var hub = new ReviewPartitionedHub(16, new SimpleMeterRegistry());
+
+        var first = hub.subscribe(1L, DefaultDataBufferFactory.sharedInstance).subscribe();
+        var second = hub.subscribe(1L, DefaultDataBufferFactory.sharedInstance).subscribe();
+        var other = hub.subscribe(2L, DefaultDataBufferFactory.sharedInstance).subscribe();
+        assertEquals(2, hub.partitionCount());
+
+        first.dispose();
+        assertEquals(2, hub.partitionCount());
+        second.dispose();
+        assertEquals(1, hub.partitionCount());
+        other.dispose();
+        assertEquals(0, hub.partitionCount());
+    }
+
+}
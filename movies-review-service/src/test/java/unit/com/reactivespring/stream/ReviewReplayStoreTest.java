@@ -0,0 +1,102 @@
+package com.reactivespring.stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.Review;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ReviewReplayStoreTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ReviewEventEncoder encoder = new ReviewEventEncoder(objectMapper);
+
+    private static ReviewReplayStore replayStore(int maxSize, Duration maxAge, boolean offHeap) {
+        return new ReviewReplayStore(maxSize, maxAge, offHeap, 512, 16, new SimpleMeterRegistry());
+    }
+
+    private static byte[] review(long i) {
+        return encoder.encode(new Review(String.valueOf(i), 1L, "Review " + i, 8.0));
+    }
+
+    private static Flux<String> reviewIds(ReviewReplayStore replayStore, int maxEvents) {
+        return replayStore.subscribe(maxEvents, null, DefaultDataBufferFactory.sharedInstance)
+                .map(ReviewReplayStoreTest::reviewIdOf);
+    }
+
+    private static String reviewIdOf(DataBuffer line) {
+        try {
+            return objectMapper.readValue(line.toString(StandardCharsets.UTF_8), Review.class).getReviewId();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void subscribe_replaysOnlyTheMostRecentReviews(boolean offHeap) {
+        var replayStore = replayStore(3, Duration.ofMinutes(10), offHeap);
+        for (long i = 1; i <= 5; i++) {
+            replayStore.append(review(i));
+        }
+
+        assertEquals(3, replayStore.size());
+        StepVerifier.create(reviewIds(replayStore, Integer.MAX_VALUE))
+                .expectNext("3", "4", "5")
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void subscribe_replayCount_thenLive() {
+        var replayStore = replayStore(10, Duration.ofMinutes(10), false);
+        for (long i = 1; i <= 5; i++) {
+            replayStore.append(review(i));
+        }
+
+        StepVerifier.create(reviewIds(replayStore, 2))
+                .expectNext("4", "5")
+                .then(() -> replayStore.append(review(6)))
+                .expectNext("6")
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void subscribe_expiredReviewsAreNotReplayed() throws InterruptedException {
+        var replayStore = replayStore(10, Duration.ofMillis(100), false);
+        replayStore.append(review(1));
+        Thread.sleep(200);
+        replayStore.append(review(2));
+
+        StepVerifier.create(reviewIds(replayStore, Integer.MAX_VALUE))
+                .expectNext("2")
+                .thenCancel()
+                .verify();
+        assertEquals(1, replayStore.size());
+    }
+
+    @Test
+    void offHeap_bytesAreReleasedOnEviction() {
+        var replayStore = replayStore(2, Duration.ofMinutes(10), true);
+        replayStore.append(review(1));
+        replayStore.append(review(2));
+        var twoReviews = replayStore.offHeapBytes();
+        replayStore.append(review(3));
+
+        assertEquals(twoReviews, replayStore.offHeapBytes());
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.domain.TrendingMovie;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReviewTrendingEngineTest {
+
+    private static final Duration FIVE_MINUTES = Duration.ofMinutes(5);
+    private static final Duration ONE_HOUR = Duration.ofHours(1);
+
+    private final MutableClock clock = new MutableClock();
+
+    private ReviewTrendingEngine engine(int width, int candidates) {
+        return new ReviewTrendingEngine(List.of(FIVE_MINUTES, ONE_HOUR), 60, width, 4, candidates, clock,
+                new SimpleMeterRegistry());
+    }
+
+    private static List<Long> movieIds(List<TrendingMovie> trending) {
+        return trending.stream().map(TrendingMovie::getMovieInfoId).collect(Collectors.toList());
+    }
+
+    @Test
+    void trending_ranksMoviesByReviews() {
+        var engine = engine(1024, 100);
+        for (int i = 0; i < 5; i++) {
+            engine.record(1L);
+        }
+        for (int i = 0; i < 3; i++) {
+            engine.record(2L);
+        }
+        engine.record(3L);
+
+        var trending = engine.trending(FIVE_MINUTES, 2);
+
+        assertEquals(List.of(1L, 2L), movieIds(trending));
+        assertEquals(5, trending.get(0).getReviews());
+        assertEquals(3, trending.get(1).getReviews());
+    }
+
+    @Test
+    void trending_findsHeavyHittersAmongManyMovies() {
+        // far more distinct movies than sketch cells or candidates
+        var engine = engine(256, 20);
+        for (long movieInfoId = 1000; movieInfoId < 21000; movieInfoId++) {
+            engine.record(movieInfoId);
+            if (movieInfoId % 100 == 0) {
+                engine.record(42L);
+                engine.record(42L);
+                engine.record(7L);
+            }
+        }
+
+        var trending = engine.trending(FIVE_MINUTES, 2);
+
+        assertEquals(List.of(42L, 7L), movieIds(trending));
+        // a sketch overcounts by collisions but never undercounts
+        assertTrue(trending.get(0).getReviews() >= 400);
+        assertTrue(trending.get(1).getReviews() >= 200);
+    }
+
+    @Test
+    void trending_reviewsLeaveTheWindowAsItSlides() {
+        var engine = engine(1024, 100);
+        engine.record(1L);
+        clock.advance(Duration.ofMinutes(3));
+        engine.record(2L);
+
+        clock.advance(Duration.ofMinutes(3));
+
+        assertEquals(List.of(2L), movieIds(engine.trending(FIVE_MINUTES, 10)));
+        assertEquals(List.of(1L, 2L), movieIds(engine.trending(ONE_HOUR, 10)));
+
+        clock.advance(Duration.ofHours(2));
+
+        assertTrue(engine.trending(FIVE_MINUTES, 10).isEmpty());
+        assertTrue(engine.trending(ONE_HOUR, 10).isEmpty());
+    }
+
+    @Test
+    void trending_expiredBurstDoesNotKeepNewMoviesOut() {
+        // room for two candidates, and no trending() call until the end to refresh their counts
+        var engine = engine(1024, 2);
+        for (int i = 0; i < 50; i++) {
+            engine.record(1L);
+        }
+        clock.advance(Duration.ofMinutes(3));
+        for (int i = 0; i < 10; i++) {
+            engine.record(2L);
+        }
+        clock.advance(Duration.ofMinutes(3));
+        // movie 1's burst has left the five minute window, movie 2's reviews have not
+        for (int i = 0; i < 20; i++) {
+            engine.record(3L);
+        }
+
+        var trending = engine.trending(FIVE_MINUTES, 10);
+
+        assertEquals(List.of(3L, 2L), movieIds(trending));
+        assertEquals(20, trending.get(0).getReviews());
+        assertEquals(10, trending.get(1).getReviews());
+    }
+
+    @Test
+    void trending_unknownWindow() {
+        assertNull(engine(1024, 100).trending(Duration.ofMinutes(10), 10));
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.reactivespring.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactivespring.domain.MovieInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Bounded, TTL based cache of {@link MovieInfo} keyed by movieInfoId.
+ * <p>
+ * Misses are loaded through the given loader; concurrent misses for the same id share the
+ * same load. Failed and empty loads are not cached, so 404 and 5xx responses keep going
+ * to movies-info-service. Hits, misses and evictions are published as {@code cache.*} meters
+ * under the {@code movieInfo} cache name.
+ */
+@Component
+@Slf4j
+public class MovieInfoCache {
+
+    private final AsyncCache<String, MovieInfo> cache;
+    private final Cache<String, MovieInfo> synchronousView;
+
+    public MovieInfoCache(@Value("${moviesInfoCache.maximumSize:10000}") long maximumSize,
+                          @Value("${moviesInfoCache.expireAfterWrite:5m}") Duration expireAfterWrite,
+                          MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .buildAsync();
+        this.synchronousView = cache.synchronous();
+        CaffeineCacheMetrics.monitor(meterRegistry, synchronousView, "movieInfo");
+    }
+
+    public Mono<MovieInfo> get(String movieId, Function<String, Mono<MovieInfo>> loader) {
+        return Mono.defer(() -> {
+            var load = cache.get(movieId, (key, executor) -> loader.apply(key).toFuture());
+            // copy() so that a cancelled caller only cancels its own view of the shared load. Caffeine drops a
+            // failed or empty load only after the callers have seen it, so it is removed here first; otherwise
+            // a request that comes in right after the failure would be handed the same failed load
+            return Mono.fromFuture(load.copy())
+                    .doOnError(ex -> cache.asMap().remove(movieId, load))
+                    .doOnSuccess(movieInfo -> {
+                        if (movieInfo == null) {
+                            cache.asMap().remove(movieId, load);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Replaces an entry that is already cached with the given value; ids that are not cached are ignored
+     * so the stream does not pull cold titles into the cache.
+     */
+    public void refresh(MovieInfo movieInfo) {
+        if (movieInfo.getMovieInfoId() == null) {
+            return;
+        }
+        var refreshed = cache.asMap().computeIfPresent(movieInfo.getMovieInfoId(),
+                (id, existing) -> CompletableFuture.completedFuture(movieInfo));
+        if (refreshed != null) {
+            log.debug("Refreshed cached MovieInfo : {}", movieInfo.getMovieInfoId());
+        }
+    }
+
+    public void invalidate(String movieId) {
+        synchronousView.invalidate(movieId);
+    }
+
+    public void invalidateAll() {
+        synchronousView.invalidateAll();
+    }
+
+    public long estimatedSize() {
+        return synchronousView.estimatedSize();
+    }
+
+}
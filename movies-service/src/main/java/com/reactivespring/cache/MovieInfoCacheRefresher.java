@@ -0,0 +1,58 @@
+package com.reactivespring.cache;
+
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.stream.MovieInfoStreamHub;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+
+import javax.annotation.PreDestroy;
+
+/**
+ * Keeps {@link MovieInfoCache} in line with movies-info-service by following the shared movieinfo stream.
+ * Every streamed MovieInfo replaces the cached entry for its id, and a deleted one (a tombstone carrying
+ * only the id) evicts it. Whenever the upstream drops or completes, the whole cache is invalidated because
+ * updates may be missed while reconnecting.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(value = "moviesInfoCache.streamRefresh.enabled", havingValue = "true", matchIfMissing = true)
+public class MovieInfoCacheRefresher {
+
+    private final MovieInfoStreamHub movieInfoStreamHub;
+    private final MovieInfoCache movieInfoCache;
+
+    private Disposable subscription;
+
+    public MovieInfoCacheRefresher(MovieInfoStreamHub movieInfoStreamHub, MovieInfoCache movieInfoCache) {
+        this.movieInfoStreamHub = movieInfoStreamHub;
+        this.movieInfoCache = movieInfoCache;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        movieInfoStreamHub.onUpstreamDropped(movieInfoCache::invalidateAll);
+        // the hub reconnects on its own, so this subscription lives until shutdown
+        subscription = movieInfoStreamHub.subscribe()
+                .subscribe(this::apply);
+    }
+
+    private void apply(MovieInfo movieInfo) {
+        if (movieInfo.isDeleted()) {
+            movieInfoCache.invalidate(movieInfo.getMovieInfoId());
+        } else {
+            movieInfoCache.refresh(movieInfo);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+}
@@ -1,10 +1,17 @@
 package com.reactivespring.client;
 
+import com.reactivespring.cache.MovieInfoCache;
+import com.reactivespring.config.RestClientProperties;
 import com.reactivespring.domain.MovieInfo;
 import com.reactivespring.exception.MoviesInfoClientException;
 import com.reactivespring.exception.MoviesInfoServerException;
+import com.reactivespring.util.CircuitBreaker;
+import com.reactivespring.util.Hedger;
 import com.reactivespring.util.RetryUtil;
+import com.reactivespring.util.TokenBudget;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
@@ -12,6 +19,7 @@ import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.Exceptions;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClientRequest;
 import reactor.util.retry.Retry;
 
 import java.time.Duration;
@@ -22,14 +30,48 @@ public class MoviesInfoRestClient {
 
     private final WebClient webClient;
 
+    private final MovieInfoCache movieInfoCache;
+
+    private final TokenBudget retryBudget;
+
+    private final Retry retrySpec;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final Hedger hedger;
+
     @Value("${restClient.moviesInfoUrl}")
     private String moviesInfoUrl;
 
-    public MoviesInfoRestClient(WebClient webClient) {
+    public MoviesInfoRestClient(@Qualifier("moviesInfoWebClient") WebClient webClient, MovieInfoCache movieInfoCache,
+                                RestClientProperties restClientProperties, TokenBudget retryBudget,
+                                MeterRegistry meterRegistry) {
         this.webClient = webClient;
+        this.movieInfoCache = movieInfoCache;
+        this.retryBudget = retryBudget;
+        this.retrySpec = RetryUtil.retrySpec("moviesInfo", restClientProperties.getMoviesInfo().getRetry(),
+                retryBudget, meterRegistry);
+        this.circuitBreaker = new CircuitBreaker("moviesInfo", restClientProperties.getMoviesInfo().getCircuitBreaker(),
+                ex -> !(ex instanceof MoviesInfoClientException), meterRegistry);
+        this.hedger = new Hedger("moviesInfo", restClientProperties.getMoviesInfo().getHedge(), meterRegistry);
     }
 
     public Mono<MovieInfo> retriveMovieInfo(String movieId) {
+        // the cache shares one load between concurrent misses for the same id
+        return movieInfoCache.get(movieId, this::fetchMovieInfo);
+    }
+
+    private Mono<MovieInfo> fetchMovieInfo(String movieId) {
+
+        return hedger.hedge(() -> movieInfoAttempt(movieId))
+//                .retry(3)
+                .retryWhen(retrySpec)
+                .doOnSubscribe(subscription -> retryBudget.deposit())
+                .log();
+
+    }
+
+    private Mono<MovieInfo> movieInfoAttempt(String movieId) {
 
         var url = moviesInfoUrl.concat("/{id}");
 
@@ -49,10 +91,12 @@ public class MoviesInfoRestClient {
                             .flatMap(s -> Mono.error(new MoviesInfoServerException("Server Execption in MoviesInfoService "+s)));
                 })
                 .bodyToMono(MovieInfo.class)
-//                .retry(3)
-                .retryWhen(RetryUtil.retrySpec())
-                .log();
+                .transform(circuitBreaker::protect);
+
+    }
 
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
     }
 
     public Flux<MovieInfo> retriveMovieInfoStream() {
@@ -60,6 +104,11 @@ public class MoviesInfoRestClient {
 
          return webClient.get()
                  .uri(url)
+                 // the stream is long lived and can be idle for a while, so no per-read response timeout
+                 .httpRequest(httpRequest -> {
+                     HttpClientRequest reactorRequest = httpRequest.getNativeRequest();
+                     reactorRequest.responseTimeout(Duration.ZERO);
+                 })
                  .retrieve()
                  .onStatus(HttpStatus::is4xxClientError, clientResponse -> {
                      log.info("Status code is : {}", clientResponse.statusCode().value());
@@ -75,7 +124,8 @@ public class MoviesInfoRestClient {
                  })
                  .bodyToFlux(MovieInfo.class)
 //                .retry(3)
-                 .retryWhen(RetryUtil.retrySpec())
+                 .retryWhen(retrySpec)
+                 .doOnSubscribe(subscription -> retryBudget.deposit())
                  .log();
 
 
@@ -1,12 +1,18 @@
 package com.reactivespring.client;
 
+import com.reactivespring.config.RestClientProperties;
 import com.reactivespring.domain.Review;
 import com.reactivespring.exception.MoviesInfoClientException;
 import com.reactivespring.exception.MoviesInfoServerException;
 import com.reactivespring.exception.ReviewsClientException;
 import com.reactivespring.exception.ReviewsServerException;
+import com.reactivespring.util.BatchLoader;
+import com.reactivespring.util.CircuitBreaker;
 import com.reactivespring.util.RetryUtil;
+import com.reactivespring.util.TokenBudget;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
@@ -14,6 +20,9 @@ import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.util.List;
 
 @Component
 @Slf4j
@@ -21,17 +30,51 @@ public class ReviewsRestClient {
 
     private WebClient webClient;
 
+    private final TokenBudget retryBudget;
+
+    private final Retry retrySpec;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final BatchLoader<String, Review> reviewsBatchLoader;
+
     @Value("${restClient.reviewsUrl}")
     private String reviewsUrl;
 
-    public ReviewsRestClient(WebClient webClient) {
+    public ReviewsRestClient(@Qualifier("reviewsWebClient") WebClient webClient, RestClientProperties restClientProperties,
+                             TokenBudget retryBudget, MeterRegistry meterRegistry) {
         this.webClient = webClient;
+        this.retryBudget = retryBudget;
+        this.retrySpec = RetryUtil.retrySpec("reviews", restClientProperties.getReviews().getRetry(),
+                retryBudget, meterRegistry);
+        this.circuitBreaker = new CircuitBreaker("reviews", restClientProperties.getReviews().getCircuitBreaker(),
+                ex -> !(ex instanceof ReviewsClientException), meterRegistry);
+
+        var batch = restClientProperties.getReviews().getBatch();
+        this.reviewsBatchLoader = batch.isEnabled()
+                ? new BatchLoader<>("reviews", this::fetchReviews, ReviewsRestClient::movieIdOf,
+                        batch.getWindow(), batch.getMaxSize(), meterRegistry)
+                : null;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
     }
 
     public Flux<Review> retriveReviews(String movieId){
 
+        if (reviewsBatchLoader == null) {
+            return fetchReviews(List.of(movieId));
+        }
+        return reviewsBatchLoader.load(normalize(movieId))
+                .flatMapIterable(reviews -> reviews);
+
+    }
+
+    private Flux<Review> fetchReviews(List<String> movieIds) {
+
         var url = UriComponentsBuilder.fromUriString(reviewsUrl)
-                .queryParam("movieInfoId", movieId)
+                .queryParam("movieInfoId", movieIds.toArray())
                 .buildAndExpand()
                 .toUriString();
 
@@ -51,10 +94,34 @@ public class ReviewsRestClient {
                             .flatMap(s -> Mono.error(new ReviewsServerException("Server Execption in ReviewService "+s)));
                 })
                 .bodyToFlux(Review.class)
-                .retryWhen(RetryUtil.retrySpec())
+                .transform(circuitBreaker::protectMany)
+                .retryWhen(retrySpec)
+                .doOnSubscribe(subscription -> retryBudget.deposit())
                 .log();
 
     }
 
-}
+    /**
+     * A numeric id in the form the reviews come back with, so "007" is batched, and matched, as "7". Other
+     * ids are left as they are, the reviews service has no reviews for them.
+     */
+    private static String normalize(String movieId) {
+        try {
+            return String.valueOf(Long.parseLong(movieId));
+        } catch (NumberFormatException e) {
+            return movieId;
+        }
+    }
+
+    /**
+     * A batch of one movie owns every review it gets back, whatever the id format; in larger batches
+     * reviews are matched on their movieInfoId, which the keys were normalized to.
+     */
+    private static String movieIdOf(List<String> movieIds, Review review) {
+        if (movieIds.size() == 1) {
+            return movieIds.get(0);
+        }
+        return String.valueOf(review.getMovieInfoId());
+    }
 
+}
@@ -0,0 +1,91 @@
+package com.reactivespring.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Per-downstream HTTP client settings, bound from {@code restClient.moviesInfo.*} and {@code restClient.reviews.*},
+ * plus the retry budget shared by both downstreams ({@code restClient.retryBudget.*}).
+ */
+@Data
+@ConfigurationProperties(prefix = "rest-client")
+public class RestClientProperties {
+
+    private Downstream moviesInfo = new Downstream();
+    private Downstream reviews = new Downstream();
+    private Budget retryBudget = new Budget();
+
+    @Data
+    public static class Downstream {
+
+        // connection pool
+        private int maxConnections = 100;
+        private int pendingAcquireMaxCount = 1000;
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(5);
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+        private Duration maxLifeTime = Duration.ofMinutes(5);
+        private Duration evictInBackground = Duration.ofSeconds(30);
+
+        // http client
+        private Duration connectTimeout = Duration.ofSeconds(2);
+        private Duration responseTimeout = Duration.ofSeconds(5);
+        private boolean h2c = false;
+        private boolean compress = true;
+
+        private Retry retry = new Retry();
+        private CircuitBreaker circuitBreaker = new CircuitBreaker();
+        private Hedge hedge = new Hedge();
+        private Batch batch = new Batch();
+    }
+
+    @Data
+    public static class Retry {
+        private long maxAttempts = 3;
+        private Duration minBackoff = Duration.ofMillis(100);
+        private Duration maxBackoff = Duration.ofSeconds(1);
+        private double jitter = 0.5;
+    }
+
+    @Data
+    public static class CircuitBreaker {
+        private int windowSize = 100;
+        private int minimumCalls = 20;
+        // percentages of the calls in the window
+        private double failureRateThreshold = 50;
+        private double slowCallRateThreshold = 80;
+        private Duration slowCallDuration = Duration.ofSeconds(2);
+        private Duration openDuration = Duration.ofSeconds(10);
+        private int halfOpenCalls = 5;
+    }
+
+    @Data
+    public static class Hedge {
+        private boolean enabled = false;
+        // hedge once the first attempt is slower than this share of recent calls
+        private double percentile = 0.95;
+        private Duration minDelay = Duration.ofMillis(10);
+        private Duration maxDelay = Duration.ofSeconds(1);
+        private long minSamples = 100;
+        private Duration histogramWindow = Duration.ofMinutes(1);
+        private double budgetRatio = 0.05;
+        private int budgetMaxTokens = 10;
+    }
+
+    @Data
+    public static class Batch {
+        private boolean enabled = false;
+        // how long the first lookup of a batch waits for others to join it
+        private Duration window = Duration.ofMillis(2);
+        private int maxSize = 100;
+    }
+
+    @Data
+    public static class Budget {
+        // share of live traffic that may be spent on extra calls
+        private double ratio = 0.1;
+        private int maxTokens = 20;
+    }
+
+}
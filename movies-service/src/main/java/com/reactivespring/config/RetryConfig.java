@@ -0,0 +1,17 @@
+package com.reactivespring.config;
+
+import com.reactivespring.util.TokenBudget;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RetryConfig {
+
+    @Bean
+    public TokenBudget retryBudget(RestClientProperties restClientProperties, MeterRegistry meterRegistry) {
+        var budget = restClientProperties.getRetryBudget();
+        return new TokenBudget("retry", budget.getRatio(), budget.getMaxTokens(), meterRegistry);
+    }
+
+}
@@ -1,15 +1,70 @@
 package com.reactivespring.config;
 
+import io.netty.channel.ChannelOption;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 @Configuration
+@EnableConfigurationProperties(RestClientProperties.class)
 public class WebClientConfig {
 
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider moviesInfoConnectionProvider(RestClientProperties restClientProperties) {
+        return connectionProvider("moviesInfo", restClientProperties.getMoviesInfo());
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider reviewsConnectionProvider(RestClientProperties restClientProperties) {
+        return connectionProvider("reviews", restClientProperties.getReviews());
+    }
+
     @Bean
-    public WebClient webClient(WebClient.Builder builder){
-        return builder.build();
+    public WebClient moviesInfoWebClient(WebClient.Builder builder, ConnectionProvider moviesInfoConnectionProvider,
+                                         RestClientProperties restClientProperties) {
+        return webClient(builder, moviesInfoConnectionProvider, restClientProperties.getMoviesInfo());
+    }
+
+    @Bean
+    public WebClient reviewsWebClient(WebClient.Builder builder, ConnectionProvider reviewsConnectionProvider,
+                                      RestClientProperties restClientProperties) {
+        return webClient(builder, reviewsConnectionProvider, restClientProperties.getReviews());
+    }
+
+    /**
+     * metrics(true) registers the reactor.netty.connection.provider.* gauges (total, active, idle, pending)
+     * tagged with the pool name, which is what we size the pool against.
+     */
+    private static ConnectionProvider connectionProvider(String name, RestClientProperties.Downstream settings) {
+        return ConnectionProvider.builder(name)
+                .maxConnections(settings.getMaxConnections())
+                .pendingAcquireMaxCount(settings.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(settings.getPendingAcquireTimeout())
+                .maxIdleTime(settings.getMaxIdleTime())
+                .maxLifeTime(settings.getMaxLifeTime())
+                .evictInBackground(settings.getEvictInBackground())
+                .metrics(true)
+                .build();
+    }
+
+    private static WebClient webClient(WebClient.Builder builder, ConnectionProvider connectionProvider,
+                                       RestClientProperties.Downstream settings) {
+        var httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) settings.getConnectTimeout().toMillis())
+                .responseTimeout(settings.getResponseTimeout())
+                .compress(settings.isCompress());
+        if (settings.isH2c()) {
+            // h2c with HTTP/1.1 upgrade, so a downstream without HTTP/2 support keeps working
+            httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+        }
+        return builder.clone()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
     }
 
 }
@@ -1,10 +1,22 @@
 package com.reactivespring.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.reactivespring.client.MoviesInfoRestClient;
 import com.reactivespring.client.ReviewsRestClient;
 import com.reactivespring.domain.Movie;
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.Review;
+import com.reactivespring.stream.FlushCoalescer;
+import com.reactivespring.stream.MovieInfoStreamHub;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Hints;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -12,38 +24,90 @@ import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
 @RestController
 @RequestMapping("/v1/movies")
 public class MoviesController {
 
     private MoviesInfoRestClient moviesInfoRestClient;
     private ReviewsRestClient reviewsRestClient;
+    private MovieInfoStreamHub movieInfoStreamHub;
+    private Jackson2JsonEncoder jsonEncoder;
+
+    private final Counter degradedResponses;
+
+    @Value("${moviesController.concurrentFanOut:true}")
+    private boolean concurrentFanOut;
+
+    @Value("${moviesController.reviewsLatencyBudget:2s}")
+    private Duration reviewsLatencyBudget;
+
+    @Value("${moviesStream.flush.window:5ms}")
+    private Duration flushWindow;
+
+    @Value("${moviesStream.flush.maxBytes:16384}")
+    private int flushMaxBytes;
 
-    public MoviesController(MoviesInfoRestClient moviesInfoRestClient, ReviewsRestClient reviewsRestClient) {
+    public MoviesController(MoviesInfoRestClient moviesInfoRestClient, ReviewsRestClient reviewsRestClient,
+                            MovieInfoStreamHub movieInfoStreamHub, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
         this.moviesInfoRestClient = moviesInfoRestClient;
         this.reviewsRestClient = reviewsRestClient;
+        this.movieInfoStreamHub = movieInfoStreamHub;
+        this.jsonEncoder = new Jackson2JsonEncoder(objectMapper);
+        this.degradedResponses = meterRegistry.counter("movies.responses.degraded", "reason", "reviewsLatencyBudget");
     }
 
     @GetMapping("/{id}")
     public Mono<Movie> retriveMovieById(@PathVariable("id") String movieId) {
 
+        if (concurrentFanOut) {
+            // Both calls are subscribed at once; zip cancels the in-flight reviews call
+            // as soon as the movie info call errors (404, 5xx) or completes empty.
+            return Mono.zip(moviesInfoRestClient.retriveMovieInfo(movieId), retriveReviewsWithinBudget(movieId))
+                    .map(tuple -> toMovie(tuple.getT1(), tuple.getT2()));
+        }
+
         return moviesInfoRestClient.retriveMovieInfo(movieId)
                 .flatMap(movieInfo -> {
-                    var reviewsListMono = reviewsRestClient.retriveReviews(movieId)
-                            .collectList();
+                    var reviewsListMono = retriveReviewsWithinBudget(movieId);
 
                     return reviewsListMono.map(
                             reviews ->
-                                    new Movie(movieInfo, reviews)
+                                    toMovie(movieInfo, reviews)
                     );
                 });
 
     }
 
+    /**
+     * Reviews that are not back within the latency budget are dropped (and the call cancelled),
+     * so a slow reviews service does not hold up the whole response.
+     */
+    private Mono<Optional<List<Review>>> retriveReviewsWithinBudget(String movieId) {
+        return reviewsRestClient.retriveReviews(movieId)
+                .collectList()
+                .map(Optional::of)
+                .timeout(reviewsLatencyBudget, Mono.just(Optional.<List<Review>>empty()));
+    }
+
+    private Movie toMovie(MovieInfo movieInfo, Optional<List<Review>> reviews) {
+        if (reviews.isEmpty()) {
+            degradedResponses.increment();
+            return new Movie(movieInfo, List.of(), true);
+        }
+        return new Movie(movieInfo, reviews.get());
+    }
+
     @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
-    public Flux<MovieInfo> retriveMovieInfos() {
+    public Flux<DataBuffer> retriveMovieInfos(ServerHttpResponse response) {
 
-        return moviesInfoRestClient.retriveMovieInfoStream();
+        // the same encoding the NDJSON writer uses, one buffer per MovieInfo, so the lines can be coalesced
+        var lines = jsonEncoder.encode(movieInfoStreamHub.subscribe(), response.bufferFactory(),
+                ResolvableType.forClass(MovieInfo.class), MediaType.APPLICATION_NDJSON, Hints.none());
+        return FlushCoalescer.coalesce(lines, flushWindow, flushMaxBytes, response.bufferFactory());
 
     }
 
@@ -14,4 +14,10 @@ public class Movie {
 
     private MovieInfo movieInfo;
     private List<Review> reviewList;
+    // true when the reviews did not make the latency budget; fetch them from the reviews service later
+    private boolean reviewsPending;
+
+    public Movie(MovieInfo movieInfo, List<Review> reviewList) {
+        this(movieInfo, reviewList, false);
+    }
 }
@@ -1,6 +1,6 @@
 package com.reactivespring.domain;
 
-
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -27,4 +27,7 @@ public class MovieInfo {
     @NotNull
     private List<@NotBlank(message = "movieInfo.cast must be present") String> cast;
     private LocalDate release_date;
+    // set on the stream's tombstone for a deleted MovieInfo, which carries nothing but the id
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private boolean deleted;
 }
@@ -0,0 +1,21 @@
+package com.reactivespring.exception;
+
+public class CircuitBreakerOpenException extends RuntimeException{
+    private String message;
+    private String downstream;
+
+    public CircuitBreakerOpenException(String downstream) {
+        super("Circuit breaker is open for " + downstream + ", failing fast");
+        this.message = "Circuit breaker is open for " + downstream + ", failing fast";
+        this.downstream = downstream;
+    }
+
+    @Override
+    public String getMessage() {
+        return message;
+    }
+
+    public String getDownstream() {
+        return downstream;
+    }
+}
@@ -1,5 +1,6 @@
 package com.reactivespring.globalerrorhandler;
 
+import com.reactivespring.exception.CircuitBreakerOpenException;
 import com.reactivespring.exception.MoviesInfoClientException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
@@ -17,6 +18,12 @@ public class GlobalErrorHandler {
 
       return ResponseEntity.status(moviesInfoClientException.getStatusCode()).body(moviesInfoClientException.getMessage());
     }
+    @ExceptionHandler(CircuitBreakerOpenException.class)
+    public ResponseEntity<String> handleCircuitBreakerOpenException(CircuitBreakerOpenException circuitBreakerOpenException){
+      log.error("Exception Caught in handleCircuitBreakerOpenException: {}", circuitBreakerOpenException.getMessage() );
+
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(circuitBreakerOpenException.getMessage());
+    }
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<String> handleRunTimeException(RuntimeException exception){
       log.error("Exception Caught in handleRunTimeException: {}", exception.getMessage() );
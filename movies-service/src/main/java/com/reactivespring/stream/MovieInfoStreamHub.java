@@ -0,0 +1,114 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.client.MoviesInfoRestClient;
+import com.reactivespring.domain.MovieInfo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares one upstream movieinfo stream from movies-info-service with every local subscriber.
+ * <p>
+ * The upstream is opened by the first subscriber and closed when the last one leaves. If it fails or
+ * completes while subscribers are connected, it is reopened with exponential backoff. Each subscriber
+ * reads through its own bounded buffer, so a slow client drops its oldest events instead of
+ * holding up the upstream or the other subscribers. Subscriber count and lag are published as
+ * {@code movies.stream.*} meters.
+ */
+@Component
+@Slf4j
+public class MovieInfoStreamHub {
+
+    private final Flux<MovieInfo> upstream;
+    private final int subscriberBufferSize;
+
+    private final Set<AtomicLong> subscriberLags = ConcurrentHashMap.newKeySet();
+    private final List<Runnable> upstreamDropListeners = new CopyOnWriteArrayList<>();
+
+    private final Counter reconnects;
+    private final Counter droppedEvents;
+
+    public MovieInfoStreamHub(MoviesInfoRestClient moviesInfoRestClient,
+                              @Value("${moviesStream.subscriberBufferSize:256}") int subscriberBufferSize,
+                              @Value("${moviesStream.reconnect.minBackoff:1s}") Duration minBackoff,
+                              @Value("${moviesStream.reconnect.maxBackoff:30s}") Duration maxBackoff,
+                              MeterRegistry meterRegistry) {
+        this.subscriberBufferSize = subscriberBufferSize;
+        this.reconnects = meterRegistry.counter("movies.stream.upstream.reconnects");
+        this.droppedEvents = meterRegistry.counter("movies.stream.events.dropped");
+        Gauge.builder("movies.stream.subscribers", subscriberLags, Set::size)
+                .register(meterRegistry);
+        Gauge.builder("movies.stream.lag.max", this, MovieInfoStreamHub::maxLag)
+                .register(meterRegistry);
+
+        this.upstream = Flux.defer(moviesInfoRestClient::retriveMovieInfoStream)
+                .doOnSubscribe(subscription -> log.info("Opening the upstream movieinfo stream"))
+                .doOnError(ex -> upstreamDropped("failed : " + ex.getMessage()))
+                .doOnComplete(() -> upstreamDropped("completed"))
+                // transientErrors resets the backoff once the reconnected stream delivers again
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, minBackoff)
+                        .maxBackoff(maxBackoff)
+                        .transientErrors(true)
+                        .doBeforeRetry(retrySignal -> reconnects.increment()))
+                .repeatWhen(completed -> completed
+                        .doOnNext(signal -> reconnects.increment())
+                        .delayElements(minBackoff))
+                .doOnCancel(() -> log.info("Last subscriber left, closing the upstream movieinfo stream"))
+                .publish()
+                .refCount(1);
+    }
+
+    public Flux<MovieInfo> subscribe() {
+        return Flux.defer(() -> {
+            // events received from the upstream but not yet delivered to this subscriber
+            var lag = new AtomicLong();
+            return upstream
+                    .doOnNext(movieInfo -> lag.incrementAndGet())
+                    .onBackpressureBuffer(subscriberBufferSize, dropped -> {
+                        lag.decrementAndGet();
+                        droppedEvents.increment();
+                    }, BufferOverflowStrategy.DROP_OLDEST)
+                    .doOnNext(movieInfo -> lag.decrementAndGet())
+                    .doOnSubscribe(subscription -> subscriberLags.add(lag))
+                    .doFinally(signalType -> subscriberLags.remove(lag));
+        });
+    }
+
+    /**
+     * Registers a callback that runs whenever the upstream fails or completes, i.e. whenever
+     * events may be missed until the reconnect.
+     */
+    public void onUpstreamDropped(Runnable listener) {
+        upstreamDropListeners.add(listener);
+    }
+
+    public int subscriberCount() {
+        return subscriberLags.size();
+    }
+
+    public long maxLag() {
+        return subscriberLags.stream()
+                .mapToLong(AtomicLong::get)
+                .max()
+                .orElse(0);
+    }
+
+    private void upstreamDropped(String reason) {
+        log.warn("Upstream movieinfo stream {}, reconnecting", reason);
+        upstreamDropListeners.forEach(Runnable::run);
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.reactivespring.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * DataLoader style batching of lookups by key.
+ * <p>
+ * Keys requested within {@code window} of the first pending key are collected into one batch, which is
+ * sent as a single call once the window closes or {@code maxBatchSize} distinct keys are pending.
+ * Callers asking for the same key in the same batch share its result. The batch counts its callers, and
+ * only once every one of them has cancelled is the batch call cancelled too, or never made when it was
+ * still pending.
+ *
+ * @param <K> lookup key
+ * @param <V> values returned by the batch call, several per key
+ */
+public class BatchLoader<K, V> {
+
+    private final Function<List<K>, Flux<V>> batchCall;
+    private final BiFunction<List<K>, V, K> keyOf;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final Scheduler scheduler;
+
+    private final Counter batchCalls;
+    private final DistributionSummary batchSizes;
+
+    private Batch current;
+
+    /**
+     * @param keyOf maps a returned value back to the key it belongs to, given the keys of its batch
+     */
+    public BatchLoader(String name, Function<List<K>, Flux<V>> batchCall, BiFunction<List<K>, V, K> keyOf,
+                       Duration window, int maxBatchSize, MeterRegistry meterRegistry) {
+        this.batchCall = batchCall;
+        this.keyOf = keyOf;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Schedulers.parallel();
+        this.batchCalls = meterRegistry.counter("restclient.batch.calls", "downstream", name);
+        this.batchSizes = DistributionSummary.builder("restclient.batch.size")
+                .tag("downstream", name)
+                .register(meterRegistry);
+    }
+
+    public Mono<List<V>> load(K key) {
+        return Mono.defer(() -> {
+            Sinks.One<List<V>> result;
+            Batch batch;
+            Batch full = null;
+            synchronized (this) {
+                if (current == null) {
+                    var created = new Batch();
+                    current = created;
+                    scheduler.schedule(() -> dispatch(created), window.toNanos(), TimeUnit.NANOSECONDS);
+                }
+                batch = current;
+                batch.callers++;
+                result = batch.waiters.computeIfAbsent(key, k -> Sinks.one());
+                if (batch.waiters.size() >= maxBatchSize) {
+                    full = batch;
+                    current = null;
+                }
+            }
+            if (full != null) {
+                dispatch(full);
+            }
+            return result.asMono()
+                    .doOnCancel(() -> cancel(batch));
+        });
+    }
+
+    private void dispatch(Batch batch) {
+        synchronized (this) {
+            if (current == batch) {
+                current = null;
+            }
+            if (batch.dispatched || batch.callers == 0) {
+                return;
+            }
+            batch.dispatched = true;
+        }
+
+        var keys = new ArrayList<>(batch.waiters.keySet());
+        batchCalls.increment();
+        batchSizes.record(keys.size());
+
+        var call = Flux.defer(() -> batchCall.apply(keys))
+                .collectMultimap(value -> keyOf.apply(keys, value))
+                .subscribe(
+                        results -> batch.waiters.forEach((key, waiter) -> {
+                            var values = results.get(key);
+                            waiter.tryEmitValue(values == null ? List.of() : List.copyOf(values));
+                        }),
+                        ex -> batch.waiters.values().forEach(waiter -> waiter.tryEmitError(ex)));
+        synchronized (this) {
+            batch.call = call;
+            if (batch.callers == 0) {
+                // every caller cancelled while the call was being made
+                call.dispose();
+            }
+        }
+    }
+
+    private void cancel(Batch batch) {
+        Disposable call;
+        synchronized (this) {
+            if (--batch.callers > 0) {
+                return;
+            }
+            if (current == batch) {
+                // still collecting keys, the window ends on a batch nobody waits for
+                current = null;
+            }
+            call = batch.call;
+        }
+        if (call != null) {
+            call.dispose();
+        }
+    }
+
+    private class Batch {
+        // only modified while holding the loader's lock and before the batch is dispatched
+        private final Map<K, Sinks.One<List<V>>> waiters = new LinkedHashMap<>();
+        private boolean dispatched;
+        // guarded by the loader's lock
+        private int callers;
+        private Disposable call;
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.reactivespring.util;
+
+import com.reactivespring.config.RestClientProperties;
+import com.reactivespring.exception.CircuitBreakerOpenException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Count based sliding window circuit breaker (CLOSED, OPEN, HALF_OPEN), without locks.
+ * <p>
+ * The outcome of the last {@code windowSize} calls is kept in a ring of slots. The failure and slow-call
+ * totals are updated incrementally as slots are overwritten, so checking the thresholds is O(1).
+ * Once at least {@code minimumCalls} outcomes are recorded and either the failure rate or the slow-call
+ * rate reaches its threshold, the breaker opens and calls fail fast with {@link CircuitBreakerOpenException}.
+ * After {@code openDuration} it lets {@code halfOpenCalls} trial calls through; they close the breaker
+ * again if they all succeed and re-open it otherwise.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private static final int EMPTY = 0;
+    private static final int SUCCESS = 1;
+    private static final int FAILURE = 2;
+    private static final int SLOW_SUCCESS = 3;
+    private static final int SLOW_FAILURE = 4;
+
+    private final String name;
+    private final RestClientProperties.CircuitBreaker settings;
+    private final Predicate<Throwable> recordAsFailure;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicIntegerArray window;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger slowCalls = new AtomicInteger();
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicInteger halfOpenPermits = new AtomicInteger();
+    private final AtomicInteger halfOpenSuccesses = new AtomicInteger();
+
+    public CircuitBreaker(String name, RestClientProperties.CircuitBreaker settings,
+                          Predicate<Throwable> recordAsFailure, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.settings = settings;
+        this.recordAsFailure = recordAsFailure;
+        this.meterRegistry = meterRegistry;
+        this.window = new AtomicIntegerArray(settings.getWindowSize());
+        Gauge.builder("restclient.circuitbreaker.state", state, s -> s.get().ordinal())
+                .description("0 = closed, 1 = open, 2 = half open")
+                .tag("downstream", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs every subscription to the given call through the breaker. Meant for a single attempt, so
+     * that each retry is checked and recorded on its own.
+     */
+    public <T> Mono<T> protect(Mono<T> call) {
+        return protectMany(call.flux()).singleOrEmpty();
+    }
+
+    public <T> Flux<T> protectMany(Flux<T> call) {
+        return Flux.defer(() -> {
+            var permittedState = tryAcquirePermission();
+            if (permittedState == null) {
+                return Flux.error(new CircuitBreakerOpenException(name));
+            }
+            var start = System.nanoTime();
+            return call.doOnComplete(() -> onResult(permittedState, false, System.nanoTime() - start))
+                    .doOnError(ex -> onResult(permittedState, recordAsFailure.test(ex), System.nanoTime() - start))
+                    .doOnCancel(() -> releasePermission(permittedState));
+        });
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < window.length(); i++) {
+            window.set(i, EMPTY);
+        }
+        recorded.set(0);
+        failures.set(0);
+        slowCalls.set(0);
+        state.set(State.CLOSED);
+    }
+
+    private State tryAcquirePermission() {
+        var current = state.get();
+        if (current == State.CLOSED) {
+            return State.CLOSED;
+        }
+        if (current == State.OPEN) {
+            if (System.nanoTime() - openedAt.get() < settings.getOpenDuration().toNanos()) {
+                return null;
+            }
+            if (transition(State.OPEN, State.HALF_OPEN)) {
+                halfOpenPermits.set(settings.getHalfOpenCalls());
+                halfOpenSuccesses.set(0);
+            }
+        }
+        // HALF_OPEN: only a fixed number of trial calls go through
+        if (state.get() == State.HALF_OPEN && halfOpenPermits.getAndDecrement() > 0) {
+            return State.HALF_OPEN;
+        }
+        return state.get() == State.CLOSED ? State.CLOSED : null;
+    }
+
+    private void releasePermission(State permittedState) {
+        if (permittedState == State.HALF_OPEN && state.get() == State.HALF_OPEN) {
+            halfOpenPermits.incrementAndGet();
+        }
+    }
+
+    private void onResult(State permittedState, boolean failure, long durationNanos) {
+        var slow = durationNanos >= settings.getSlowCallDuration().toNanos();
+        if (permittedState == State.HALF_OPEN) {
+            if (failure || slow) {
+                if (transition(State.HALF_OPEN, State.OPEN)) {
+                    openedAt.set(System.nanoTime());
+                }
+            } else if (halfOpenSuccesses.incrementAndGet() >= settings.getHalfOpenCalls()
+                    && transition(State.HALF_OPEN, State.CLOSED)) {
+                reset();
+            }
+            return;
+        }
+        record(failure ? (slow ? SLOW_FAILURE : FAILURE) : (slow ? SLOW_SUCCESS : SUCCESS));
+        if (state.get() == State.CLOSED && thresholdsExceeded() && transition(State.CLOSED, State.OPEN)) {
+            openedAt.set(System.nanoTime());
+        }
+    }
+
+    private void record(int outcome) {
+        var slot = (int) (cursor.getAndIncrement() % window.length());
+        var previous = window.getAndSet(slot, outcome);
+        if (previous == EMPTY) {
+            recorded.incrementAndGet();
+        }
+        failures.addAndGet(isFailure(outcome) - isFailure(previous));
+        slowCalls.addAndGet(isSlow(outcome) - isSlow(previous));
+    }
+
+    private boolean thresholdsExceeded() {
+        var calls = recorded.get();
+        if (calls < settings.getMinimumCalls()) {
+            return false;
+        }
+        return failures.get() * 100.0 / calls >= settings.getFailureRateThreshold()
+                || slowCalls.get() * 100.0 / calls >= settings.getSlowCallRateThreshold();
+    }
+
+    private boolean transition(State from, State to) {
+        if (!state.compareAndSet(from, to)) {
+            return false;
+        }
+        log.warn("Circuit breaker for {} moved from {} to {}", name, from, to);
+        meterRegistry.counter("restclient.circuitbreaker.transitions",
+                "downstream", name, "from", from.name(), "to", to.name()).increment();
+        return true;
+    }
+
+    private static int isFailure(int outcome) {
+        return outcome == FAILURE || outcome == SLOW_FAILURE ? 1 : 0;
+    }
+
+    private static int isSlow(int outcome) {
+        return outcome == SLOW_SUCCESS || outcome == SLOW_FAILURE ? 1 : 0;
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.reactivespring.util;
+
+import com.reactivespring.config.RestClientProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Hedged requests for idempotent calls.
+ * <p>
+ * When the first attempt has not answered after the configured latency percentile (for example p95),
+ * one duplicate attempt is sent and whichever signals first wins; the other one is cancelled.
+ * Hedges are paid for out of their own {@link TokenBudget}, so they never exceed a small share of
+ * traffic, and hedging stays off until the histogram has seen {@code minSamples} calls.
+ */
+public class Hedger {
+
+    private final RestClientProperties.Hedge settings;
+    private final TokenBudget hedgeBudget;
+    private final LatencyHistogram latencyHistogram;
+
+    private final Counter hedgesSent;
+    private final Counter hedgesWon;
+    private final Counter hedgesDenied;
+
+    public Hedger(String name, RestClientProperties.Hedge settings, MeterRegistry meterRegistry) {
+        this.settings = settings;
+        this.hedgeBudget = new TokenBudget(name + ".hedge", settings.getBudgetRatio(), settings.getBudgetMaxTokens(),
+                meterRegistry);
+        this.latencyHistogram = new LatencyHistogram(settings.getHistogramWindow());
+        this.hedgesSent = meterRegistry.counter("restclient.hedge.calls", "downstream", name, "result", "sent");
+        this.hedgesWon = meterRegistry.counter("restclient.hedge.calls", "downstream", name, "result", "won");
+        this.hedgesDenied = meterRegistry.counter("restclient.hedge.calls", "downstream", name, "result", "budgetExhausted");
+    }
+
+    public <T> Mono<T> hedge(Supplier<Mono<T>> attempt) {
+        if (!settings.isEnabled()) {
+            return Mono.defer(attempt);
+        }
+        return Mono.defer(() -> {
+            hedgeBudget.deposit();
+            var primary = timed(Mono.defer(attempt));
+            if (latencyHistogram.count() < settings.getMinSamples()) {
+                return primary;
+            }
+
+            Mono<T> hedged = Mono.delay(hedgeDelay())
+                    .flatMap(tick -> {
+                        if (!hedgeBudget.tryWithdraw()) {
+                            hedgesDenied.increment();
+                            // leave the primary attempt on its own
+                            return Mono.<T>never();
+                        }
+                        hedgesSent.increment();
+                        return timed(Mono.defer(attempt))
+                                .doOnSuccess(value -> hedgesWon.increment());
+                    });
+
+            return Mono.firstWithSignal(primary, hedged);
+        });
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    private Duration hedgeDelay() {
+        var delay = latencyHistogram.percentile(settings.getPercentile());
+        if (delay.compareTo(settings.getMinDelay()) < 0) {
+            return settings.getMinDelay();
+        }
+        if (delay.compareTo(settings.getMaxDelay()) > 0) {
+            return settings.getMaxDelay();
+        }
+        return delay;
+    }
+
+    private <T> Mono<T> timed(Mono<T> attempt) {
+        return Mono.defer(() -> {
+            var start = System.nanoTime();
+            return attempt.doOnSuccess(value -> latencyHistogram.record(Duration.ofNanos(System.nanoTime() - start)));
+        });
+    }
+
+}
@@ -1,18 +1,38 @@
 package com.reactivespring.util;
 
+import com.reactivespring.config.RestClientProperties;
 import com.reactivespring.exception.MoviesInfoServerException;
 import com.reactivespring.exception.ReviewsServerException;
+import io.micrometer.core.instrument.MeterRegistry;
 import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
 
-import java.time.Duration;
-
 public class RetryUtil {
 
-    public static Retry retrySpec(){
-        return Retry.fixedDelay(3, Duration.ofSeconds(1))
+    /**
+     * Exponential backoff with jitter, so callers that failed together do not retry in lockstep.
+     * Every retry has to withdraw a token from the shared retry budget; once the budget is spent the
+     * original failure is returned right away instead of adding load to a struggling downstream.
+     */
+    public static Retry retrySpec(String downstream, RestClientProperties.Retry retry,
+                                  TokenBudget retryBudget, MeterRegistry meterRegistry) {
+        var attempts = meterRegistry.counter("restclient.retry.attempts", "downstream", downstream);
+        var budgetExhausted = meterRegistry.counter("restclient.retry.budget.exhausted", "downstream", downstream);
+
+        return Retry.backoff(retry.getMaxAttempts(), retry.getMinBackoff())
+                .maxBackoff(retry.getMaxBackoff())
+                .jitter(retry.getJitter())
                 .filter(ex -> ex instanceof MoviesInfoServerException ||
                         ex instanceof ReviewsServerException)
+                .doBeforeRetryAsync(retrySignal -> {
+                    if (!retryBudget.tryWithdraw()) {
+                        budgetExhausted.increment();
+                        return Mono.error(retrySignal.failure());
+                    }
+                    attempts.increment();
+                    return Mono.empty();
+                })
                 .onRetryExhaustedThrow((retryBackoffSpec, retrySignal) -> Exceptions.propagate(retrySignal.failure()));
     }
 
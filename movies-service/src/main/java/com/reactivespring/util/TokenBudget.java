@@ -0,0 +1,53 @@
+package com.reactivespring.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that caps extra work (retries, hedged calls) at a fraction of live traffic.
+ * <p>
+ * Every regular call deposits {@code ratio} tokens and every extra call withdraws one whole token,
+ * so over time at most {@code ratio * calls} extra calls are allowed. The bucket starts full and never
+ * holds more than {@code maxTokens}, which bounds the burst allowed after a quiet period.
+ * Tokens are kept in thousandths so the bucket can be updated with plain CAS operations.
+ */
+public class TokenBudget {
+
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    public TokenBudget(String name, double ratio, int maxTokens, MeterRegistry meterRegistry) {
+        this.deposit = Math.round(ratio * SCALE);
+        this.capacity = maxTokens * SCALE;
+        this.balance = new AtomicLong(capacity);
+        Gauge.builder("restclient.budget.tokens", this, TokenBudget::availableTokens)
+                .tag("budget", name)
+                .register(meterRegistry);
+    }
+
+    public void deposit() {
+        balance.getAndUpdate(current -> Math.min(capacity, current + deposit));
+    }
+
+    public boolean tryWithdraw() {
+        for (;;) {
+            var current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    public double availableTokens() {
+        return (double) balance.get() / SCALE;
+    }
+
+}
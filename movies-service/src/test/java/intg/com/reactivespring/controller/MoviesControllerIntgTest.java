@@ -1,7 +1,13 @@
 package com.reactivespring.controller;
 
 import com.github.tomakehurst.wiremock.client.WireMock;
+import com.reactivespring.cache.MovieInfoCache;
+import com.reactivespring.client.MoviesInfoRestClient;
+import com.reactivespring.client.ReviewsRestClient;
 import com.reactivespring.domain.Movie;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.stream.MovieInfoStreamHub;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
@@ -9,12 +15,18 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.util.Objects;
+import java.util.Set;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
@@ -23,7 +35,13 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 @TestPropertySource(
         properties = {
                 "restClient.moviesInfoUrl=http://localhost:8084/v1/movieinfo",
-                "restClient.reviewsUrl=http://localhost:8084/v1/reviews"
+                "restClient.reviewsUrl=http://localhost:8084/v1/reviews",
+                "moviesInfoCache.streamRefresh.enabled=false",
+                "restClient.moviesInfo.circuitBreaker.minimumCalls=8",
+                // keeps the three reviews retries well inside the 2s reviews latency budget
+                "restClient.reviews.retry.minBackoff=10ms",
+                // wide enough that lookups issued together always share a batch
+                "restClient.reviews.batch.window=20ms"
         }
 )
 public class MoviesControllerIntgTest {
@@ -31,6 +49,29 @@ public class MoviesControllerIntgTest {
         @Autowired
         WebTestClient webTestClient;
 
+        @Autowired
+        MoviesController moviesController;
+
+        @Autowired
+        MovieInfoCache movieInfoCache;
+
+        @Autowired
+        MoviesInfoRestClient moviesInfoRestClient;
+
+        @Autowired
+        ReviewsRestClient reviewsRestClient;
+
+        @Autowired
+        MovieInfoStreamHub movieInfoStreamHub;
+
+        @BeforeEach
+        void setUp() {
+                movieInfoCache.invalidateAll();
+                WireMock.resetAllRequests();
+                moviesInfoRestClient.getCircuitBreaker().reset();
+                reviewsRestClient.getCircuitBreaker().reset();
+        }
+
         @Test
         void retriveMovieById(){
 
@@ -148,4 +189,233 @@ public class MoviesControllerIntgTest {
     }
 
 
+    @Test
+    void retriveMovieById_concurrentFanOut_latency() {
+        var movieId = "abc";
+        var movieInfoDelay = 500;
+        var reviewsDelay = 500;
+
+        stubFor(get(urlEqualTo("/v1/movieinfo" + "/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")
+                        .withFixedDelay(movieInfoDelay)));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")
+                        .withFixedDelay(reviewsDelay)));
+
+        // how long after the movie info request WireMock received the reviews request; unlike the
+        // end-to-end latency this does not depend on how fast the test machine is
+        ReflectionTestUtils.setField(moviesController, "concurrentFanOut", false);
+        long sequentialGap;
+        try {
+            sequentialGap = reviewsRequestGap(movieId);
+        } finally {
+            ReflectionTestUtils.setField(moviesController, "concurrentFanOut", true);
+        }
+        var concurrentGap = reviewsRequestGap(movieId);
+
+        // sequential: reviews are only requested once the movie info response has come back
+        assertTrue(sequentialGap >= movieInfoDelay, "reviews requested " + sequentialGap + " ms after movie info");
+        // concurrent: reviews are requested while the movie info response is still being delayed
+        assertTrue(concurrentGap < movieInfoDelay, "reviews requested " + concurrentGap + " ms after movie info");
+    }
+
+    @Test
+    void retriveMovieById_404_cancelsReviews() {
+        var movieId = "abc";
+
+        stubFor(get(urlEqualTo("/v1/movieinfo" + "/" + movieId))
+                .willReturn(aResponse().withStatus(404)));
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")
+                        .withFixedDelay(2000)));
+
+        var start = System.nanoTime();
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isNotFound();
+        var elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        assertTrue(elapsed < 2000, "404 should not wait for the reviews call, took " + elapsed + " ms");
+    }
+
+    @Test
+    void retriveReviews_batchedIdWithLeadingZeros() {
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("[{\"reviewId\":\"1\",\"movieInfoId\":7,\"comment\":\"Awesome Movie\",\"rating\":9.0},"
+                                + "{\"reviewId\":\"2\",\"movieInfoId\":8,\"comment\":\"Excellent Movie\",\"rating\":8.0}]")));
+
+        // both within one batch window, so a single call matches the reviews on their movieInfoId
+        var reviews = Flux.merge(
+                        reviewsRestClient.retriveReviews("007").map(review -> "007=" + review.getReviewId()),
+                        reviewsRestClient.retriveReviews("8").map(review -> "8=" + review.getReviewId()))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertEquals(Set.of("007=1", "8=2"), Set.copyOf(reviews));
+        WireMock.verify(1, getRequestedFor(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo("7")));
+    }
+
+    @Test
+    void retriveMovieById_concurrentCallsAreCoalesced() {
+        var movieId = "abc";
+
+        stubFor(get(urlEqualTo("/v1/movieinfo" + "/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")
+                        .withFixedDelay(300)));
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        var movies = Flux.range(0, 20)
+                .flatMap(i -> moviesController.retriveMovieById(movieId))
+                .collectList()
+                .block();
+
+        assertEquals(20, Objects.requireNonNull(movies).size());
+        movies.forEach(movie -> assertEquals("Batman Begins", movie.getMovieInfo().getName()));
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfo" + "/" + movieId)));
+    }
+
+    @Test
+    void retriveMovieById_servedFromCache() {
+        var movieId = "abc";
+
+        stubFor(get(urlEqualTo("/v1/movieinfo" + "/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")));
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        for (int i = 0; i < 3; i++) {
+            webTestClient.get()
+                    .uri("/v1/movies/{id}", movieId)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody(Movie.class)
+                    .consumeWith(movieEntityExchangeResult ->
+                            assertEquals("Batman Begins", Objects.requireNonNull(movieEntityExchangeResult.getResponseBody()).getMovieInfo().getName()));
+        }
+
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfo" + "/" + movieId)));
+        WireMock.verify(3, getRequestedFor(urlPathEqualTo("/v1/reviews")));
+    }
+
+    @Test
+    void retriveMovieById_circuitBreakerOpen() {
+        var movieId = "abc";
+
+        stubFor(get(urlEqualTo("/v1/movieinfo" + "/" + movieId))
+                .willReturn(aResponse().withStatus(500)
+                        .withBody("Movie Info Unavailable")));
+        // reviews are fetched alongside the movie info; a failing reviews call would cancel its retries
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        // two requests with three retries each fill the minimum window with failures
+        for (int i = 0; i < 2; i++) {
+            webTestClient.get()
+                    .uri("/v1/movies/{id}", movieId)
+                    .exchange()
+                    .expectStatus().is5xxServerError();
+        }
+
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isEqualTo(503)
+                .expectBody(String.class)
+                .consumeWith(s -> assertEquals("Circuit breaker is open for moviesInfo, failing fast", s.getResponseBody()));
+
+        WireMock.verify(8, getRequestedFor(urlEqualTo("/v1/movieinfo" + "/" + movieId)));
+    }
+
+    @Test
+    void retriveMovieById_reviewsOverLatencyBudget() {
+        var movieId = "abc";
+
+        stubFor(get(urlEqualTo("/v1/movieinfo" + "/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")));
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")
+                        .withFixedDelay(3000)));
+
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Movie.class)
+                .consumeWith(movieEntityExchangeResult -> {
+                    var movie = movieEntityExchangeResult.getResponseBody();
+                    assertEquals("Batman Begins", Objects.requireNonNull(movie).getMovieInfo().getName());
+                    assertEquals(0, movie.getReviewList().size());
+                    assertTrue(movie.isReviewsPending());
+                });
+    }
+
+    @Test
+    void retriveMovieInfos_sharesOneUpstreamSubscription() {
+        stubFor(get(urlEqualTo("/v1/movieinfo/stream"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/x-ndjson")
+                        .withBody("{\"movieInfoId\":\"1\",\"name\":\"Batman Begins\",\"year\":2005}\n"
+                                + "{\"movieInfoId\":\"2\",\"name\":\"The Dark Knight\",\"year\":2008}\n")
+                        .withFixedDelay(200)));
+
+        var subscribers = Flux.range(0, 5)
+                .flatMap(i -> movieInfoStreamHub.subscribe().take(2));
+
+        StepVerifier.create(subscribers.map(MovieInfo::getMovieInfoId))
+                .expectNextCount(10)
+                .verifyComplete();
+
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfo/stream")));
+        assertEquals(0, movieInfoStreamHub.subscriberCount());
+    }
+
+    private long reviewsRequestGap(String movieId) {
+        movieInfoCache.invalidateAll();
+        WireMock.resetAllRequests();
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Movie.class)
+                .consumeWith(movieEntityExchangeResult -> {
+                    var movie = movieEntityExchangeResult.getResponseBody();
+                    assertEquals(2, Objects.requireNonNull(movie).getReviewList().size());
+                });
+        return requestLoggedAt("/v1/reviews") - requestLoggedAt("/v1/movieinfo/" + movieId);
+    }
+
+    private static long requestLoggedAt(String urlPrefix) {
+        return WireMock.getAllServeEvents().stream()
+                .filter(serveEvent -> serveEvent.getRequest().getUrl().startsWith(urlPrefix))
+                .mapToLong(serveEvent -> serveEvent.getRequest().getLoggedDate().getTime())
+                .min()
+                .orElseThrow(() -> new AssertionError("no request to " + urlPrefix));
+    }
+
 }
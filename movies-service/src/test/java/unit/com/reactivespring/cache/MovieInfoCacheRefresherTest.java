@@ -0,0 +1,69 @@
+package com.reactivespring.cache;
+
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.stream.MovieInfoStreamHub;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MovieInfoCacheRefresherTest {
+
+    private final Sinks.Many<MovieInfo> events = Sinks.many().multicast().directBestEffort();
+    private final MovieInfoCache movieInfoCache = new MovieInfoCache(100, Duration.ofMinutes(5), new SimpleMeterRegistry());
+
+    private MovieInfoCacheRefresher refresher;
+
+    @BeforeEach
+    void setUp() {
+        var movieInfoStreamHub = mock(MovieInfoStreamHub.class);
+        when(movieInfoStreamHub.subscribe()).thenReturn(events.asFlux());
+        refresher = new MovieInfoCacheRefresher(movieInfoStreamHub, movieInfoCache);
+        refresher.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        refresher.stop();
+    }
+
+    private static MovieInfo movieInfo(String name) {
+        return new MovieInfo("abc", name, 2005, List.of("Christian Bale"), LocalDate.parse("2005-06-15"), false);
+    }
+
+    private MovieInfo cached(String loadedName) {
+        return movieInfoCache.get("abc", id -> Mono.just(movieInfo(loadedName))).block();
+    }
+
+    @Test
+    void update_replacesTheCachedEntry() {
+        assertEquals("Batman Begins", cached("Batman Begins").getName());
+
+        events.tryEmitNext(movieInfo("Batman Begins (Director's Cut)"));
+
+        assertEquals("Batman Begins (Director's Cut)", cached("loaded again").getName());
+    }
+
+    @Test
+    void delete_evictsTheCachedEntry() {
+        assertEquals("Batman Begins", cached("Batman Begins").getName());
+
+        var tombstone = new MovieInfo();
+        tombstone.setMovieInfoId("abc");
+        tombstone.setDeleted(true);
+        events.tryEmitNext(tombstone);
+
+        assertEquals("loaded again", cached("loaded again").getName());
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.reactivespring.cache;
+
+import com.reactivespring.domain.MovieInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MovieInfoCacheTest {
+
+    private final MovieInfoCache movieInfoCache = new MovieInfoCache(100, Duration.ofMinutes(5), new SimpleMeterRegistry());
+
+    @Test
+    void get_failedLoad_isNotHandedToTheNextCaller() {
+        var loads = new AtomicInteger();
+        Sinks.One<MovieInfo> firstLoad = Sinks.one();
+
+        // the second get runs from the failure signal itself, before Caffeine's own cleanup of the failed load
+        var movieInfo = movieInfoCache.get("abc", id -> {
+                    loads.incrementAndGet();
+                    return firstLoad.asMono();
+                })
+                .onErrorResume(ex -> movieInfoCache.get("abc", id -> {
+                    loads.incrementAndGet();
+                    return Mono.just(new MovieInfo("abc", "Batman Begins", 2005, List.of("Christian Bale"),
+                            LocalDate.parse("2005-06-15"), false));
+                }));
+
+        StepVerifier.create(movieInfo)
+                .then(() -> firstLoad.tryEmitError(new RuntimeException("movies-info-service unavailable")))
+                .expectNextMatches(loaded -> loaded.getName().equals("Batman Begins"))
+                .verifyComplete();
+        assertEquals(2, loads.get());
+    }
+
+}
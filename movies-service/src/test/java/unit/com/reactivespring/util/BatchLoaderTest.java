@@ -0,0 +1,98 @@
+package com.reactivespring.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchLoaderTest {
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    private Flux<String> batchCall(List<String> keys) {
+        batches.add(keys);
+        // two values per key, e.g. "1:a" and "1:b"
+        return Flux.fromIterable(keys)
+                .flatMap(key -> Flux.just(key + ":a", key + ":b"));
+    }
+
+    private BatchLoader<String, String> batchLoader(Duration window, int maxBatchSize) {
+        return new BatchLoader<>("test", this::batchCall, (keys, value) -> value.split(":")[0],
+                window, maxBatchSize, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void load_concurrentKeys_oneBatchCall() {
+        var loader = batchLoader(Duration.ofMillis(20), 100);
+
+        var results = Flux.just("1", "2", "1", "3")
+                .flatMap(key -> loader.load(key).map(values -> key + "=" + values))
+                .collectList()
+                .block();
+
+        assertEquals(1, batches.size());
+        assertEquals(List.of("1", "2", "3"), batches.get(0));
+        assertEquals(4, results.size());
+        assertEquals(2, results.stream().filter(result -> result.equals("1=[1:a, 1:b]")).count());
+    }
+
+    @Test
+    void load_maxBatchSize_dispatchesEarly() {
+        var loader = batchLoader(Duration.ofSeconds(10), 2);
+
+        StepVerifier.create(Flux.just("1", "2").flatMap(loader::load))
+                .expectNextCount(2)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    void load_lastCallerCancels_cancelsTheBatchCall() {
+        var cancelled = new AtomicBoolean();
+        var loader = new BatchLoader<String, String>("test", keys -> Flux.<String>never().doOnCancel(() -> cancelled.set(true)),
+                (keys, value) -> value, Duration.ofSeconds(10), 2, new SimpleMeterRegistry());
+
+        var first = loader.load("1").subscribe();
+        var second = loader.load("2").subscribe();
+
+        first.dispose();
+        assertFalse(cancelled.get());
+        second.dispose();
+        assertTrue(cancelled.get());
+    }
+
+    @Test
+    void load_everyCallerCancelsBeforeTheWindowEnds_noBatchCall() {
+        var loader = batchLoader(Duration.ofMillis(20), 100);
+
+        loader.load("1").subscribe().dispose();
+
+        StepVerifier.create(loader.load("2"))
+                .expectNext(List.of("2:a", "2:b"))
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        assertEquals(List.of(List.of("2")), batches);
+    }
+
+    @Test
+    void load_failedBatch_failsEveryCaller() {
+        var loader = new BatchLoader<String, String>("test", keys -> Flux.error(new IllegalStateException("down")),
+                (keys, value) -> value, Duration.ofMillis(5), 100, new SimpleMeterRegistry());
+
+        StepVerifier.create(Mono.zip(loader.load("1"), loader.load("2")))
+                .expectErrorMessage("down")
+                .verify(Duration.ofSeconds(1));
+    }
+
+}
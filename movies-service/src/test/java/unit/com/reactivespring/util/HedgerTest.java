@@ -0,0 +1,86 @@
+package com.reactivespring.util;
+
+import com.reactivespring.config.RestClientProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HedgerTest {
+
+    private static RestClientProperties.Hedge hedgeSettings(int budgetMaxTokens) {
+        var settings = new RestClientProperties.Hedge();
+        settings.setEnabled(true);
+        settings.setMinSamples(5);
+        settings.setMinDelay(Duration.ofMillis(50));
+        settings.setBudgetMaxTokens(budgetMaxTokens);
+        return settings;
+    }
+
+    private static void warmUp(Hedger hedger) {
+        for (int i = 0; i < 5; i++) {
+            hedger.hedge(() -> Mono.just("warm up")).block();
+        }
+    }
+
+    @Test
+    void hedge_slowPrimary_hedgeWins() {
+        var meterRegistry = new SimpleMeterRegistry();
+        var hedger = new Hedger("test", hedgeSettings(10), meterRegistry);
+        warmUp(hedger);
+
+        var attempts = new AtomicInteger();
+        var result = hedger.hedge(() -> attempts.getAndIncrement() == 0
+                ? Mono.delay(Duration.ofSeconds(5)).map(tick -> "primary")
+                : Mono.just("hedged"));
+
+        StepVerifier.create(result)
+                .expectNext("hedged")
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        assertEquals(2, attempts.get());
+        assertEquals(1.0, meterRegistry.counter("restclient.hedge.calls", "downstream", "test", "result", "won").count());
+    }
+
+    @Test
+    void hedge_fastPrimary_noHedge() {
+        var hedger = new Hedger("test", hedgeSettings(10), new SimpleMeterRegistry());
+        warmUp(hedger);
+
+        var attempts = new AtomicInteger();
+        var result = hedger.hedge(() -> {
+            attempts.incrementAndGet();
+            return Mono.just("primary");
+        });
+
+        StepVerifier.create(result)
+                .expectNext("primary")
+                .verifyComplete();
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void hedge_budgetExhausted_waitsForPrimary() {
+        var meterRegistry = new SimpleMeterRegistry();
+        var hedger = new Hedger("test", hedgeSettings(0), meterRegistry);
+        warmUp(hedger);
+
+        var attempts = new AtomicInteger();
+        var result = hedger.hedge(() -> {
+            attempts.incrementAndGet();
+            return Mono.delay(Duration.ofMillis(200)).map(tick -> "primary");
+        });
+
+        StepVerifier.create(result)
+                .expectNext("primary")
+                .verifyComplete();
+        assertEquals(1, attempts.get());
+        assertEquals(1.0, meterRegistry.counter("restclient.hedge.calls", "downstream", "test", "result", "budgetExhausted").count());
+    }
+
+}
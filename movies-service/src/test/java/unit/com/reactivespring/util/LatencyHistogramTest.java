@@ -0,0 +1,49 @@
+package com.reactivespring.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LatencyHistogramTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final LatencyHistogram histogram = new LatencyHistogram(Duration.ofSeconds(60), now::get);
+
+    private void advance(Duration duration) {
+        now.addAndGet(duration.toNanos());
+    }
+
+    @Test
+    void percentile_readsTheCurrentAndThePreviousWindow() {
+        histogram.record(Duration.ofMillis(100));
+        advance(Duration.ofSeconds(70));
+        histogram.record(Duration.ofMillis(10));
+
+        assertEquals(2, histogram.count());
+        assertEquals(Duration.ofMillis(100), histogram.percentile(0.95));
+    }
+
+    @Test
+    void percentile_dropsWindowsOlderThanThePreviousOne() {
+        histogram.record(Duration.ofMillis(100));
+        advance(Duration.ofSeconds(70));
+        histogram.record(Duration.ofMillis(10));
+        advance(Duration.ofSeconds(70));
+
+        assertEquals(1, histogram.count());
+        assertEquals(Duration.ofMillis(10), histogram.percentile(0.95));
+    }
+
+    @Test
+    void percentile_afterAnIdleGap_dropsBothWindows() {
+        histogram.record(Duration.ofMillis(100));
+        advance(Duration.ofSeconds(150));
+
+        assertEquals(0, histogram.count());
+        assertEquals(Duration.ZERO, histogram.percentile(0.95));
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.reactivespring.util;
+
+import com.reactivespring.config.RestClientProperties;
+import com.reactivespring.exception.MoviesInfoServerException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RetryUtilTest {
+
+    private static RestClientProperties.Retry retrySettings() {
+        var retry = new RestClientProperties.Retry();
+        retry.setMaxAttempts(3);
+        retry.setMinBackoff(Duration.ofMillis(1));
+        retry.setMaxBackoff(Duration.ofMillis(5));
+        return retry;
+    }
+
+    private static Mono<String> failing(AtomicInteger calls) {
+        return Mono.defer(() -> {
+            calls.incrementAndGet();
+            return Mono.error(new MoviesInfoServerException("Server Exception in MoviesInfoService"));
+        });
+    }
+
+    @Test
+    void retrySpec_retriesWhileTheBudgetLasts() {
+        var meterRegistry = new SimpleMeterRegistry();
+        var budget = new TokenBudget("test", 0.1, 10, meterRegistry);
+        var calls = new AtomicInteger();
+
+        StepVerifier.create(failing(calls).retryWhen(RetryUtil.retrySpec("test", retrySettings(), budget, meterRegistry)))
+                .expectError(MoviesInfoServerException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(4, calls.get());
+        assertEquals(3, meterRegistry.counter("restclient.retry.attempts", "downstream", "test").count());
+    }
+
+    @Test
+    void retrySpec_emptyBudget_failsWithoutRetrying() {
+        var meterRegistry = new SimpleMeterRegistry();
+        var budget = new TokenBudget("test", 0.1, 1, meterRegistry);
+        budget.tryWithdraw();
+        var calls = new AtomicInteger();
+
+        StepVerifier.create(failing(calls).retryWhen(RetryUtil.retrySpec("test", retrySettings(), budget, meterRegistry)))
+                .expectError(MoviesInfoServerException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(1, calls.get());
+        assertEquals(1, meterRegistry.counter("restclient.retry.budget.exhausted", "downstream", "test").count());
+    }
+
+}
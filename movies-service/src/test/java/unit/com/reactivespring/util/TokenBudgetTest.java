@@ -0,0 +1,51 @@
+package com.reactivespring.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TokenBudgetTest {
+
+    @Test
+    void tryWithdraw_startsFullAndRunsOut() {
+        var budget = new TokenBudget("test", 0.1, 3, new SimpleMeterRegistry());
+
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        assertEquals(0.0, budget.availableTokens());
+    }
+
+    @Test
+    void deposit_refillsOneTokenPerTenCalls() {
+        var budget = new TokenBudget("test", 0.1, 3, new SimpleMeterRegistry());
+        while (budget.tryWithdraw()) {
+            // drain the initial tokens
+        }
+
+        for (int i = 0; i < 9; i++) {
+            budget.deposit();
+        }
+        assertFalse(budget.tryWithdraw());
+
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    void deposit_neverExceedsMaxTokens() {
+        var budget = new TokenBudget("test", 0.5, 2, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+
+        assertEquals(2.0, budget.availableTokens());
+    }
+
+}
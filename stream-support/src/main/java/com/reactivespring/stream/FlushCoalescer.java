@@ -0,0 +1,236 @@
+package com.reactivespring.stream;
+
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Combines the buffers of a streaming response into fewer, larger writes. Shared by the streaming endpoints of
+ * all three services.
+ * <p>
+ * The first event after an idle period is written right away. Events that follow within {@code window}
+ * are held and written together when the window ends, or as soon as they add up to {@code maxBytes}.
+ * A window that ends with nothing held makes the stream idle again. So a quiet stream keeps its latency
+ * while a busy one pays for a write (and flush) per batch instead of per event.
+ */
+public final class FlushCoalescer {
+
+    private FlushCoalescer() {
+    }
+
+    /**
+     * @param window how long events are held after a write, {@link Duration#ZERO} to write every event on its own
+     */
+    public static Flux<DataBuffer> coalesce(Flux<DataBuffer> source, Duration window, int maxBytes,
+                                            DataBufferFactory bufferFactory) {
+        if (window.isZero() || window.isNegative()) {
+            return source;
+        }
+        // hidden so the lift is never fuseable: the coalescing subscription is not a queue subscription
+        return source.hide().transform(Operators.<DataBuffer, DataBuffer>lift((scannable, actual) ->
+                new CoalescingSubscriber(actual, window, maxBytes, bufferFactory, Schedulers.parallel())));
+    }
+
+    private static final class CoalescingSubscriber implements CoreSubscriber<DataBuffer>, Subscription {
+
+        private final CoreSubscriber<? super DataBuffer> actual;
+        private final long windowNanos;
+        private final int maxBytes;
+        private final DataBufferFactory bufferFactory;
+        private final Scheduler scheduler;
+
+        private final AtomicInteger wip = new AtomicInteger();
+        private Subscription upstream;
+
+        // guarded by this
+        private List<DataBuffer> pending = new ArrayList<>();
+        private int pendingBytes;
+        private boolean windowOpen;
+        private boolean flushDue;
+        private boolean upstreamRequested;
+        private long requested;
+        private boolean done;
+        private Throwable error;
+        private boolean cancelled;
+        private Disposable timer;
+
+        private CoalescingSubscriber(CoreSubscriber<? super DataBuffer> actual, Duration window, int maxBytes,
+                                     DataBufferFactory bufferFactory, Scheduler scheduler) {
+            this.actual = actual;
+            this.windowNanos = window.toNanos();
+            this.maxBytes = maxBytes;
+            this.bufferFactory = bufferFactory;
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            if (Operators.validate(upstream, subscription)) {
+                upstream = subscription;
+                actual.onSubscribe(this);
+            }
+        }
+
+        @Override
+        public void onNext(DataBuffer buffer) {
+            synchronized (this) {
+                if (cancelled) {
+                    DataBufferUtils.release(buffer);
+                    return;
+                }
+                upstreamRequested = false;
+                pending.add(buffer);
+                pendingBytes += buffer.readableByteCount();
+                if (!windowOpen) {
+                    // first event after an idle period
+                    windowOpen = true;
+                    flushDue = true;
+                    scheduleWindowEnd();
+                } else if (pendingBytes >= maxBytes) {
+                    flushDue = true;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            synchronized (this) {
+                error = throwable;
+                done = true;
+                flushDue = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                done = true;
+                flushDue = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                synchronized (this) {
+                    requested = Operators.addCap(requested, n);
+                }
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            List<DataBuffer> discarded;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                discarded = pending;
+                pending = new ArrayList<>();
+                pendingBytes = 0;
+                if (timer != null) {
+                    timer.dispose();
+                }
+            }
+            upstream.cancel();
+            discarded.forEach(DataBufferUtils::release);
+        }
+
+        private void scheduleWindowEnd() {
+            timer = scheduler.schedule(this::onWindowEnd, windowNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void onWindowEnd() {
+            synchronized (this) {
+                if (cancelled || done) {
+                    return;
+                }
+                if (pending.isEmpty()) {
+                    windowOpen = false;
+                    return;
+                }
+                flushDue = true;
+                scheduleWindowEnd();
+            }
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            var missed = 1;
+            for (;;) {
+                for (;;) {
+                    List<DataBuffer> batch = null;
+                    var terminate = false;
+                    Throwable failure = null;
+                    var requestMore = false;
+                    synchronized (this) {
+                        if (cancelled) {
+                            break;
+                        }
+                        if (flushDue && requested > 0 && !pending.isEmpty()) {
+                            batch = pending;
+                            pending = new ArrayList<>();
+                            pendingBytes = 0;
+                            flushDue = false;
+                            if (requested != Long.MAX_VALUE) {
+                                requested--;
+                            }
+                        } else if (done && pending.isEmpty()) {
+                            terminate = true;
+                            failure = error;
+                            cancelled = true;
+                            if (timer != null) {
+                                timer.dispose();
+                            }
+                        }
+                        if (!done && !upstreamRequested && pendingBytes < maxBytes) {
+                            upstreamRequested = true;
+                            requestMore = true;
+                        }
+                    }
+                    if (requestMore) {
+                        upstream.request(1);
+                    }
+                    if (terminate) {
+                        if (failure != null) {
+                            actual.onError(failure);
+                        } else {
+                            actual.onComplete();
+                        }
+                        break;
+                    }
+                    if (batch == null) {
+                        break;
+                    }
+                    actual.onNext(batch.size() == 1 ? batch.get(0) : bufferFactory.join(batch));
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+}
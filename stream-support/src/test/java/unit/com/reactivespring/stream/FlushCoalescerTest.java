@@ -0,0 +1,85 @@
+package com.reactivespring.stream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+public class FlushCoalescerTest {
+
+    private static final DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+
+    private static DataBuffer line(String text) {
+        return bufferFactory.wrap((text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(DataBuffer buffer) {
+        var text = buffer.toString(StandardCharsets.UTF_8);
+        DataBufferUtils.release(buffer);
+        return text;
+    }
+
+    @Test
+    void coalesce_idleStream_writesTheFirstEventRightAway() {
+        Sinks.Many<DataBuffer> events = Sinks.many().unicast().onBackpressureBuffer();
+
+        StepVerifier.create(FlushCoalescer.coalesce(events.asFlux(), Duration.ofSeconds(10), 1024, bufferFactory)
+                        .map(FlushCoalescerTest::text))
+                .then(() -> events.tryEmitNext(line("1")))
+                .expectNext("1\n")
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void coalesce_quietStream_writesEveryEventRightAway() {
+        Sinks.Many<DataBuffer> events = Sinks.many().unicast().onBackpressureBuffer();
+
+        // no virtual time passes between emitting an event and expecting it, so neither one waits for a window
+        StepVerifier.withVirtualTime(() -> FlushCoalescer.coalesce(events.asFlux(), Duration.ofMillis(50), 1024, bufferFactory)
+                        .map(FlushCoalescerTest::text))
+                .then(() -> events.tryEmitNext(line("1")))
+                .expectNext("1\n")
+                .thenAwait(Duration.ofMillis(200))
+                .then(() -> events.tryEmitNext(line("2")))
+                .expectNext("2\n")
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void coalesce_eventsWithinTheWindow_areWrittenTogether() {
+        Sinks.Many<DataBuffer> events = Sinks.many().unicast().onBackpressureBuffer();
+
+        StepVerifier.create(FlushCoalescer.coalesce(events.asFlux(), Duration.ofMillis(100), 1024, bufferFactory)
+                        .map(FlushCoalescerTest::text))
+                .then(() -> {
+                    events.tryEmitNext(line("1"));
+                    events.tryEmitNext(line("2"));
+                    events.tryEmitNext(line("3"));
+                })
+                .expectNext("1\n")
+                .expectNext("2\n3\n")
+                .then(events::tryEmitComplete)
+                .verifyComplete();
+    }
+
+    @Test
+    void coalesce_maxBytes_writesBeforeTheWindowEnds() {
+        var source = Flux.range(1, 9).map(i -> line("event" + i));
+
+        // 7 bytes per line, so after the first write every two lines reach the 14 byte threshold
+        StepVerifier.create(FlushCoalescer.coalesce(source, Duration.ofSeconds(10), 14, bufferFactory)
+                        .map(FlushCoalescerTest::text))
+                .expectNext("event1\n", "event2\nevent3\n", "event4\nevent5\n", "event6\nevent7\n", "event8\nevent9\n")
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+    }
+
+}